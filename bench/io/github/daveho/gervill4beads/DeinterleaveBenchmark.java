@@ -0,0 +1,118 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for splitting Gervill's interleaved stereo output
+ * into channel buffers: the original per-sample <code>FloatBuffer.get(int)</code>
+ * loop, the bulk get followed by {@link SampleOps#deinterleave},
+ * and the same with a fused gain/pan (constant and ramped).
+ * 
+ * @author David Hovemeyer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED",
+		"--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" })
+public class DeinterleaveBenchmark {
+	@Param({"64", "256", "1024", "4096"})
+	public int bufferSize;
+	
+	@Param({"BIG_ENDIAN", "LITTLE_ENDIAN"})
+	public String byteOrder;
+	
+	private FloatBuffer floatBuffer;
+	private float[] interleaved;
+	private float[] left;
+	private float[] right;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		ByteOrder order = byteOrder.equals("BIG_ENDIAN") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		ByteBuffer byteBuffer = ByteBuffer.allocate(bufferSize * 8).order(order);
+		floatBuffer = byteBuffer.asFloatBuffer();
+		Random rand = new Random(1234L);
+		for (int i = 0; i < bufferSize * 2; i++) {
+			floatBuffer.put(i, rand.nextFloat() * 2.0f - 1.0f);
+		}
+		interleaved = new float[bufferSize * 2];
+		left = new float[bufferSize];
+		right = new float[bufferSize];
+	}
+	
+	@Benchmark
+	public float perSampleGet() {
+		for (int i = 0; i < bufferSize; i++) {
+			left[i] = floatBuffer.get(i*2);
+			right[i] = floatBuffer.get(i*2 + 1);
+		}
+		return left[0] + right[bufferSize - 1];
+	}
+	
+	@Benchmark
+	public float bulkDeinterleave() {
+		floatBuffer.get(interleaved, 0, bufferSize * 2);
+		floatBuffer.rewind();
+		SampleOps.deinterleave(interleaved, left, right, bufferSize, 1.0f, 0.0f, 1.0f, 0.0f);
+		return left[0] + right[bufferSize - 1];
+	}
+	
+	@Benchmark
+	public float bulkDeinterleaveGain() {
+		floatBuffer.get(interleaved, 0, bufferSize * 2);
+		floatBuffer.rewind();
+		SampleOps.deinterleave(interleaved, left, right, bufferSize, 0.5f, 0.0f, 0.25f, 0.0f);
+		return left[0] + right[bufferSize - 1];
+	}
+	
+	@Benchmark
+	public float bulkDeinterleaveGainRamp() {
+		floatBuffer.get(interleaved, 0, bufferSize * 2);
+		floatBuffer.rewind();
+		SampleOps.deinterleave(interleaved, left, right, bufferSize, 0.5f, 0.0001f, 0.25f, -0.0001f);
+		return left[0] + right[bufferSize - 1];
+	}
+}
@@ -0,0 +1,99 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@link GervillUGen#calculateBuffer()} at various
+ * buffer sizes and numbers of sounding voices.  Voices are sustained
+ * string notes, so the polyphony stays constant during measurement.
+ * 
+ * @author David Hovemeyer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED",
+		"--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" })
+public class GervillUGenBenchmark {
+	@Param({"64", "256", "1024"})
+	public int bufferSize;
+	
+	@Param({"0", "16", "64"})
+	public int polyphony;
+	
+	private GervillUGen gervill;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws MidiUnavailableException {
+		AudioContext ac = new AudioContext(new NonrealtimeIO(), bufferSize);
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("max polyphony", Math.max(64, polyphony));
+		gervill = new GervillUGen(ac, info);
+		
+		// Strings (GM program 49) sustain as long as the note is held
+		Receiver recv = gervill.getSynthRecv();
+		recv.send(Midi.createShortMessage(ShortMessage.PROGRAM_CHANGE, 48), -1);
+		for (int i = 0; i < polyphony; i++) {
+			recv.send(Midi.createShortMessage(ShortMessage.NOTE_ON, 24 + (i % 80), 100), -1);
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		gervill.getSynth().close();
+	}
+	
+	@Benchmark
+	public float calculateBuffer() {
+		gervill.calculateBuffer();
+		return gervill.getOutBuffer(0)[0];
+	}
+}
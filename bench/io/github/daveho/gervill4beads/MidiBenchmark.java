@@ -0,0 +1,95 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the {@link Midi} helper and factory methods.
+ * 
+ * @author David Hovemeyer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED",
+		"--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" })
+public class MidiBenchmark {
+	private ShortMessage noteOn = Midi.createShortMessage(ShortMessage.NOTE_ON, 60, 100);
+	private byte[] noteOnBytes = noteOn.getMessage();
+	private int packedNoteOn = Midi.pack(noteOn);
+	private MidiTransform chain = new MidiTransformChain(
+			MidiTransforms.setChannel(9),
+			MidiTransforms.transpose(12),
+			MidiTransforms.velocityCurve(0.5));
+	
+	@Benchmark
+	public int getNote() {
+		return Midi.getNote(noteOn);
+	}
+	
+	@Benchmark
+	public int getVelocity() {
+		return Midi.getVelocity(noteOn);
+	}
+	
+	@Benchmark
+	public int pack() {
+		return Midi.pack(noteOn);
+	}
+	
+	@Benchmark
+	public ShortMessage toShortMessage() {
+		return Midi.toShortMessage(packedNoteOn);
+	}
+	
+	@Benchmark
+	public ShortMessage createShortMessage3() {
+		return Midi.createShortMessage(ShortMessage.NOTE_ON, 60, 100);
+	}
+	
+	@Benchmark
+	public ShortMessage createShortMessageFromBytes() {
+		return Midi.createShortMessage(noteOnBytes);
+	}
+	
+	@Benchmark
+	public int transformChain() {
+		return chain.transform(packedNoteOn);
+	}
+}
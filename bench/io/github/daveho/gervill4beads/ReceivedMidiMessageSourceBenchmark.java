@@ -0,0 +1,209 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.ShortMessage;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link ReceivedMidiMessageSource}: receiving
+ * messages from concurrent producer threads, and dispatching a
+ * frame's messages to listeners.
+ * 
+ * <p>In the send benchmarks, producers can send messages faster than the
+ * consumer dispatches them, so the queue fills up and many sends are
+ * dropped.  The <code>accepted</code> and <code>dropped</code> secondary results
+ * give the time per accepted and per dropped send.
+ * 
+ * @author David Hovemeyer
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED",
+		"--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" })
+public class ReceivedMidiMessageSourceBenchmark {
+	/**
+	 * State for the send benchmarks: one source shared by all producer
+	 * threads, with a single consumer thread dispatching frames.
+	 */
+	@State(Scope.Group)
+	public static class SendState {
+		ReceivedMidiMessageSource source;
+		ShortMessage message;
+		
+		@Setup(Level.Trial)
+		public void setUp() {
+			AudioContext ac = new AudioContext(new NonrealtimeIO(), 256);
+			source = new ReceivedMidiMessageSource(ac);
+			message = Midi.createShortMessage(ShortMessage.CONTROL_CHANGE, 1, 64);
+		}
+	}
+	
+	/**
+	 * Per-producer counts of sends which were accepted, and sends which were
+	 * dropped because the queue was full.  Dropping is much cheaper than
+	 * accepting a message, so they are reported separately.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class SendCounters {
+		public long accepted;
+		public long dropped;
+		
+		@Setup(Level.Iteration)
+		public void reset() {
+			accepted = 0L;
+			dropped = 0L;
+		}
+	}
+	
+	/**
+	 * State for the dispatch benchmark.
+	 */
+	@State(Scope.Thread)
+	public static class DispatchState {
+		@Param({"0", "1", "10", "100", "1000"})
+		public int eventsPerFrame;
+		
+		ReceivedMidiMessageSource source;
+		ShortMessage[] messages;
+		
+		@Setup(Level.Trial)
+		public void setUp(final Blackhole bh) {
+			AudioContext ac = new AudioContext(new NonrealtimeIO(), 256);
+			source = new ReceivedMidiMessageSource(ac);
+			source.addMessageListener(new Bead() {
+				@Override
+				protected void messageReceived(Bead message) {
+					bh.consume(Midi.getMidiMessage(message));
+				}
+			});
+			messages = new ShortMessage[eventsPerFrame];
+			for (int i = 0; i < eventsPerFrame; i++) {
+				messages[i] = Midi.createShortMessage(ShortMessage.NOTE_ON, i % 128, 100);
+			}
+		}
+	}
+	
+	private static void send(SendState state, SendCounters counters) {
+		// Timestamp 0 is always in the current frame (the AudioContext isn't running)
+		if (state.source.offer(state.message, 0L)) {
+			counters.accepted++;
+		} else {
+			counters.dropped++;
+		}
+	}
+	
+	private static void consume(SendState state) {
+		state.source.frameStart();
+	}
+	
+	@Benchmark
+	@Group("send1")
+	@GroupThreads(1)
+	public void send1Producer(SendState state, SendCounters counters) {
+		send(state, counters);
+	}
+	
+	@Benchmark
+	@Group("send1")
+	@GroupThreads(1)
+	public void send1Consumer(SendState state) {
+		consume(state);
+	}
+	
+	@Benchmark
+	@Group("send2")
+	@GroupThreads(2)
+	public void send2Producers(SendState state, SendCounters counters) {
+		send(state, counters);
+	}
+	
+	@Benchmark
+	@Group("send2")
+	@GroupThreads(1)
+	public void send2Consumer(SendState state) {
+		consume(state);
+	}
+	
+	@Benchmark
+	@Group("send4")
+	@GroupThreads(4)
+	public void send4Producers(SendState state, SendCounters counters) {
+		send(state, counters);
+	}
+	
+	@Benchmark
+	@Group("send4")
+	@GroupThreads(1)
+	public void send4Consumer(SendState state) {
+		consume(state);
+	}
+	
+	@Benchmark
+	@Group("send8")
+	@GroupThreads(8)
+	public void send8Producers(SendState state, SendCounters counters) {
+		send(state, counters);
+	}
+	
+	@Benchmark
+	@Group("send8")
+	@GroupThreads(1)
+	public void send8Consumer(SendState state) {
+		consume(state);
+	}
+	
+	@Benchmark
+	public void dispatchFrame(DispatchState state) {
+		for (ShortMessage msg : state.messages) {
+			state.source.send(msg, 0L);
+		}
+		state.source.frameStart();
+	}
+}
@@ -0,0 +1,122 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Soundbank;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark comparing the time to load all of the instruments of
+ * a large soundbank into a synthesizer, with sample data read by
+ * Gervill (one thread), or by a {@link ParallelSoundbankLoader}
+ * with a given number of threads.  The soundbank is a synthetic
+ * SoundFont 2 file generated when the benchmark starts: use the
+ * <code>bankMegabytes</code> parameter to choose its size
+ * (the JVM's heap must be large enough to hold it).
+ * 
+ * @author David Hovemeyer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g",
+		"-XX:+IgnoreUnrecognizedVMOptions",
+		"--add-exports=java.desktop/com.sun.media.sound=ALL-UNNAMED",
+		"--add-opens=java.desktop/com.sun.media.sound=ALL-UNNAMED" })
+public class SoundbankLoadBenchmark {
+	@Param({"256"})
+	public int bankMegabytes;
+	
+	@Param({"0", "1", "2", "4"})
+	public int threads;
+	
+	private File file;
+	private ForkJoinPool pool;
+	private GervillUGen gervill;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		file = File.createTempFile("synthetic", ".sf2");
+		file.deleteOnExit();
+		int presets = 128;
+		int sampleFrames = (int) ((bankMegabytes * 1024L * 1024L) / (2L * presets));
+		SyntheticSoundbank.write(file, presets, sampleFrames);
+		if (threads > 0) {
+			pool = new ForkJoinPool(threads);
+		}
+	}
+	
+	@Setup(Level.Invocation)
+	public void createSynth() throws MidiUnavailableException {
+		AudioContext ac = new AudioContext(new NonrealtimeIO(), 512);
+		gervill = new GervillUGen(ac, new HashMap<String, Object>());
+	}
+	
+	@TearDown(Level.Invocation)
+	public void closeSynth() {
+		gervill.close();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		file.delete();
+	}
+	
+	@Benchmark
+	public boolean loadAllInstruments() throws IOException, InvalidMidiDataException {
+		// threads=0 means that Gervill reads the sample data itself
+		Soundbank soundbank = threads > 0
+				? new ParallelSoundbankLoader(pool).load(file)
+				: MidiSystem.getSoundbank(file);
+		return gervill.getSynth().loadAllInstruments(soundbank);
+	}
+}
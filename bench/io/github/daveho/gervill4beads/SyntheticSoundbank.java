@@ -0,0 +1,199 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes synthetic SoundFont 2 files for benchmarks: each of the
+ * given number of presets has one instrument, with a single looped
+ * sample (a sawtooth wave) covering the whole keyboard.
+ * 
+ * @author David Hovemeyer
+ */
+class SyntheticSoundbank {
+	// Number of zero samples required after each sample
+	private static final int SAMPLE_PAD = 46;
+	
+	/**
+	 * Write a synthetic SoundFont 2 file.
+	 * 
+	 * @param file          the file to write
+	 * @param presets       number of presets (at most 128)
+	 * @param sampleFrames  number of frames in each preset's sample
+	 * @throws IOException
+	 */
+	static void write(File file, int presets, int sampleFrames) throws IOException {
+		long smplSize = 2L * presets * (sampleFrames + SAMPLE_PAD);
+		byte[] info = info();
+		byte[] pdta = pdta(presets, sampleFrames);
+		long sdtaSize = 4 + 8 + smplSize;
+		long riffSize = 4 + (8 + info.length) + (8 + sdtaSize) + (8 + pdta.length);
+		
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+		try {
+			writeHeader(out, "RIFF", riffSize);
+			out.write(ascii("sfbk"));
+			writeHeader(out, "LIST", info.length);
+			out.write(info);
+			writeHeader(out, "LIST", sdtaSize);
+			out.write(ascii("sdta"));
+			writeHeader(out, "smpl", smplSize);
+			byte[] sample = new byte[2 * (sampleFrames + SAMPLE_PAD)];
+			for (int i = 0; i < sampleFrames; i++) {
+				int value = ((i % 100) - 50) * 600;
+				sample[2*i] = (byte) value;
+				sample[2*i + 1] = (byte) (value >> 8);
+			}
+			for (int p = 0; p < presets; p++) {
+				out.write(sample);
+			}
+			writeHeader(out, "LIST", pdta.length);
+			out.write(pdta);
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static byte[] info() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(ascii("INFO"));
+		writeHeader(out, "ifil", 4);
+		writeWord(out, 2);
+		writeWord(out, 1);
+		writeChunk(out, "isng", zstr("EMU8000", 8));
+		writeChunk(out, "INAM", zstr("Synthetic", 10));
+		return out.toByteArray();
+	}
+	
+	private static byte[] pdta(int presets, int sampleFrames) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(ascii("pdta"));
+		
+		// Presets, each with one zone selecting its instrument
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		for (int p = 0; p <= presets; p++) {
+			chunk.write(zstr(p < presets ? "Preset " + p : "EOP", 20));
+			writeWord(chunk, p < presets ? p : 0);
+			writeWord(chunk, 0);
+			writeWord(chunk, p);
+			writeDword(chunk, 0);
+			writeDword(chunk, 0);
+			writeDword(chunk, 0);
+		}
+		writeChunk(out, "phdr", chunk.toByteArray());
+		writeChunk(out, "pbag", bags(presets));
+		writeChunk(out, "pmod", new byte[10]);
+		writeChunk(out, "pgen", gens(presets, 41));
+		
+		// Instruments, each with one zone selecting its sample
+		chunk = new ByteArrayOutputStream();
+		for (int i = 0; i <= presets; i++) {
+			chunk.write(zstr(i < presets ? "Instrument " + i : "EOI", 20));
+			writeWord(chunk, i);
+		}
+		writeChunk(out, "inst", chunk.toByteArray());
+		writeChunk(out, "ibag", bags(presets));
+		writeChunk(out, "imod", new byte[10]);
+		writeChunk(out, "igen", gens(presets, 53));
+		
+		// Samples, looped over the last 100 frames
+		chunk = new ByteArrayOutputStream();
+		for (int s = 0; s <= presets; s++) {
+			long start = s < presets ? (long) s * (sampleFrames + SAMPLE_PAD) : 0L;
+			long end = s < presets ? start + sampleFrames : 0L;
+			chunk.write(zstr(s < presets ? "Sample " + s : "EOS", 20));
+			writeDword(chunk, start);
+			writeDword(chunk, end);
+			writeDword(chunk, s < presets ? end - 100 : 0L);
+			writeDword(chunk, end);
+			writeDword(chunk, s < presets ? 44100 : 0);
+			chunk.write(60);
+			chunk.write(0);
+			writeWord(chunk, 0);
+			writeWord(chunk, s < presets ? 1 : 0);
+		}
+		writeChunk(out, "shdr", chunk.toByteArray());
+		return out.toByteArray();
+	}
+	
+	// Bags with one generator each, plus the terminal bag
+	private static byte[] bags(int count) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i <= count; i++) {
+			writeWord(out, i);
+			writeWord(out, 0);
+		}
+		return out.toByteArray();
+	}
+	
+	// One generator per bag (the i'th generator has amount i), plus the terminal generator
+	private static byte[] gens(int count, int oper) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i <= count; i++) {
+			writeWord(out, i < count ? oper : 0);
+			writeWord(out, i < count ? i : 0);
+		}
+		return out.toByteArray();
+	}
+	
+	private static void writeChunk(OutputStream out, String id, byte[] data) throws IOException {
+		writeHeader(out, id, data.length);
+		out.write(data);
+	}
+	
+	private static void writeHeader(OutputStream out, String id, long size) throws IOException {
+		out.write(ascii(id));
+		writeDword(out, size);
+	}
+	
+	private static void writeWord(OutputStream out, int value) throws IOException {
+		out.write(value);
+		out.write(value >> 8);
+	}
+	
+	private static void writeDword(OutputStream out, long value) throws IOException {
+		writeWord(out, (int) value);
+		writeWord(out, (int) (value >> 16));
+	}
+	
+	// A zero-padded string of the given (even) length
+	private static byte[] zstr(String s, int len) {
+		byte[] buf = new byte[len];
+		byte[] b = ascii(s);
+		System.arraycopy(b, 0, buf, 0, Math.min(b.length, len - 1));
+		return buf;
+	}
+	
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+}
@@ -84,7 +84,7 @@ public class Demo {
 
 	protected void createMidiSource() {
 		this.midiSource = new ReceivedMidiMessageSource(ac, 1);
-		midiSource.addMessageListener(gervill);
+		midiSource.addBatchListener(gervill);
 	}
 
 	protected void captureMidiMessages(Receiver receiver) throws MidiUnavailableException {
@@ -26,10 +26,7 @@ import java.io.IOException;
 import java.util.Scanner;
 
 import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.Soundbank;
-import javax.sound.midi.Synthesizer;
 
 /**
  * Demo to load a sound font (.sf2) file and play live.
@@ -52,9 +49,9 @@ public class DemoLoadSoundFont extends Demo {
 		super.createGervill();
 		
 		try {
-			Synthesizer synth = gervill.getSynth();
-			Soundbank sb = MidiSystem.getSoundbank(new File(fileName));
-			synth.loadAllInstruments(sb);
+			// The parsed sound font is cached, so other GervillUGens
+			// loading the same file would share it
+			gervill.loadSoundbank(new File(fileName));
 		} catch (IOException e) {
 			throw new RuntimeException("Could not load sound font", e);
 		} catch (InvalidMidiDataException e) {
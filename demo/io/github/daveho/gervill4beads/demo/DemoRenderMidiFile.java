@@ -0,0 +1,52 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Scanner;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+
+import io.github.daveho.gervill4beads.OfflineRenderer;
+
+/**
+ * Demo to render a midi (.mid) file to a WAV file, faster than realtime.
+ * 
+ * @author David Hovemeyer
+ */
+public class DemoRenderMidiFile {
+	public static void main(String[] args) throws IOException, InvalidMidiDataException, MidiUnavailableException {
+		Scanner keyboard = new Scanner(System.in);
+		String fileName = Util.chooseDirectoryAndFile(keyboard, ".mid");
+		Sequence sequence = MidiSystem.getSequence(new File(fileName));
+		File outFile = new File(fileName.replaceAll("\\.mid$", "") + ".wav");
+		
+		OfflineRenderer renderer = new OfflineRenderer(44100.0f);
+		OfflineRenderer.Result result = renderer.render(sequence, outFile);
+		System.out.printf("Wrote %s: %.1f seconds of audio in %.1f seconds (%.1fx realtime)\n",
+				outFile.getPath(), result.audioSeconds, result.elapsedSeconds, result.getRealtimeFactor());
+	}
+}
@@ -22,3 +22,30 @@ for j in $jars; do
 	fi
 done
 echo "done"
+
+# JMH jars, for the benchmarks (see the "bench" target in build.xml)
+maven=https://repo1.maven.org/maven2
+benchjars='org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar'
+
+echo -n "Downloading JMH jar files..."
+for j in $benchjars; do
+	name=`basename $j`
+	if [ ! -e "lib/$name" ]; then
+		wget -q -O lib/$name $maven/$j
+		echo -n "."
+	fi
+done
+echo "done"
+
+# JUnit jars, for the tests (see the "test" target in build.xml)
+testjars='junit/junit/4.13.2/junit-4.13.2.jar org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar'
+
+echo -n "Downloading JUnit jar files..."
+for j in $testjars; do
+	name=`basename $j`
+	if [ ! -e "lib/$name" ]; then
+		wget -q -O lib/$name $maven/$j
+		echo -n "."
+	fi
+done
+echo "done"
@@ -0,0 +1,161 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Automatically tunes the delay applied to realtime midi messages.
+ * For each realtime message, the caller records the <em>required delay</em>:
+ * the smallest delay that would have allowed the message to be delivered
+ * before the start of the audio frame in which it is played.  Periodically,
+ * the delay is set to the requested percentile of the recorded required
+ * delays, so that (for example) 99.9% of messages are delivered on time.
+ * 
+ * <p>Required delays are recorded in a histogram whose bins are a fraction
+ * of an audio frame wide, so the delay is adjusted in sub-frame increments.
+ * Increases take effect immediately (to stop messages from being late as soon
+ * as possible), while decreases are made one bin at a time.  After each
+ * adjustment, the histogram counts are halved, so that the delay follows
+ * changes in system load.
+ * 
+ * <p>{@link #recordRequiredDelay(double)} may be called from any thread.
+ * {@link #update()} must only be called from one thread (normally the audio thread).
+ * 
+ * @author David Hovemeyer
+ */
+public class AdaptiveDelay {
+	/** Number of histogram bins per audio frame. */
+	public static final int BINS_PER_FRAME = 32;
+	
+	/** Default percentile of messages which should be delivered on time. */
+	public static double DEFAULT_TARGET_PERCENTILE = 99.9;
+	
+	/** Default maximum delay, in audio frames. */
+	public static int DEFAULT_MAX_DELAY_FRAMES = 8;
+	
+	private final double binMs;
+	private final double targetFraction;
+	private final int minSamples;
+	private final AtomicLongArray histogram;
+	private final int minBin;
+	private int currentBin;
+	private volatile double delayMs;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param msPerFrame        duration of one audio frame in milliseconds
+	 * @param targetPercentile  percentage of messages which should be delivered
+	 *                          on time (e.g., 99.9)
+	 * @param minDelayMs        minimum delay in milliseconds
+	 * @param maxDelayMs        maximum delay in milliseconds
+	 * @param initialDelayMs    delay to use until enough messages have been received
+	 *                          to estimate the required delay
+	 */
+	public AdaptiveDelay(double msPerFrame, double targetPercentile,
+			double minDelayMs, double maxDelayMs, double initialDelayMs) {
+		if (targetPercentile <= 0.0 || targetPercentile >= 100.0) {
+			throw new IllegalArgumentException("Invalid target percentile: " + targetPercentile);
+		}
+		this.binMs = msPerFrame / BINS_PER_FRAME;
+		this.targetFraction = targetPercentile / 100.0;
+		
+		// Wait for enough samples that about 10 of them are expected
+		// to be above the target percentile
+		this.minSamples = (int) Math.max(100, Math.ceil(10.0 / (1.0 - targetFraction)));
+		
+		this.histogram = new AtomicLongArray((int) Math.ceil(maxDelayMs / binMs) + 1);
+		this.minBin = Math.max(0, (int) Math.ceil(minDelayMs / binMs));
+		this.currentBin = clampBin((int) Math.ceil(initialDelayMs / binMs));
+		this.delayMs = currentBin * binMs;
+	}
+	
+	/**
+	 * Record the required delay of a realtime message.
+	 * 
+	 * @param requiredDelayMs the required delay in milliseconds
+	 */
+	public void recordRequiredDelay(double requiredDelayMs) {
+		int bin = (int) Math.ceil(requiredDelayMs / binMs);
+		if (bin < 0) {
+			bin = 0;
+		} else if (bin >= histogram.length()) {
+			bin = histogram.length() - 1;
+		}
+		histogram.incrementAndGet(bin);
+	}
+	
+	/**
+	 * Adjust the delay if enough required delays have been recorded
+	 * since the last adjustment.
+	 */
+	public void update() {
+		int numBins = histogram.length();
+		long total = 0L;
+		for (int i = 0; i < numBins; i++) {
+			total += histogram.get(i);
+		}
+		if (total < minSamples) {
+			return;
+		}
+		
+		// Find the bin containing the target percentile
+		long target = (long) Math.ceil(total * targetFraction);
+		long cumulative = 0L;
+		int targetBin = numBins - 1;
+		for (int i = 0; i < numBins; i++) {
+			cumulative += histogram.get(i);
+			if (cumulative >= target) {
+				targetBin = i;
+				break;
+			}
+		}
+		targetBin = clampBin(targetBin);
+		
+		if (targetBin > currentBin) {
+			currentBin = targetBin;
+		} else if (targetBin < currentBin) {
+			currentBin--;
+		}
+		delayMs = currentBin * binMs;
+		
+		// Decay the histogram, so that recent messages have more influence
+		for (int i = 0; i < numBins; i++) {
+			long count = histogram.get(i);
+			histogram.addAndGet(i, -(count - count/2));
+		}
+	}
+	
+	/**
+	 * Get the current delay.
+	 * 
+	 * @return the current delay in milliseconds
+	 */
+	public double getDelayMs() {
+		return delayMs;
+	}
+	
+	private int clampBin(int bin) {
+		return Math.max(minBin, Math.min(histogram.length() - 1, bin));
+	}
+}
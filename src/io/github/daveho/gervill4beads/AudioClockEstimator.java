@@ -0,0 +1,200 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * Estimates the relationship between an AudioContext's sample clock and
+ * <code>System.nanoTime()</code>, so that realtime events can be
+ * assigned timestamps in AudioContext time.
+ * 
+ * <p>The audio thread reports the start of each audio frame using
+ * {@link #frameStart(double, long)}.  Because the audio thread is subject
+ * to scheduling jitter, the times at which frames actually start are noisy.
+ * This class uses a second-order delay-locked loop (DLL) to filter them:
+ * the loop tracks a smoothed frame start time and a smoothed frame period,
+ * so the mapping from nanoTime to AudioContext time follows long-term drift
+ * between the two clocks while ignoring short-term jitter.
+ * See Fons Adriaensen, "Using a DLL to filter time" (2005).
+ * 
+ * <p>{@link #frameStart(double, long)} must only be called from one thread
+ * (normally the audio thread), but {@link #toAudioTimeMs(long)} may be
+ * called from any thread.
+ * 
+ * @author David Hovemeyer
+ */
+public class AudioClockEstimator {
+	/**
+	 * Default loop bandwidth, in Hz.  Lower values filter jitter more
+	 * strongly, but take longer to lock on to the audio clock.
+	 */
+	public static double DEFAULT_BANDWIDTH_HZ = 0.5;
+	
+	/**
+	 * If a frame starts more than this many periods away from its predicted
+	 * start time (e.g., because audio processing was stopped and restarted),
+	 * the loop is reset rather than trying to track the error.
+	 */
+	private static final double RESET_THRESHOLD_PERIODS = 4.0;
+	
+	// Weight of each new error sample in the jitter estimate
+	private static final double JITTER_SMOOTHING = 0.01;
+	
+	private final double nominalPeriodNanos;
+	private final double b;
+	private final double c;
+	
+	// Loop state: only accessed by the thread calling frameStart
+	private long frameCount;
+	private double t0;
+	private double t1;
+	private double e2;
+	private double meanSquareErr;
+	
+	// Snapshot of the current mapping, published for readers using
+	// a sequence lock: version is odd while the snapshot is being updated
+	private volatile int version;
+	private volatile double frameAudioMs;
+	private volatile double frameStartNanos;
+	private volatile double msPerNano;
+	private volatile double jitterNanos;
+	private volatile double periodNanos;
+	
+	/**
+	 * Constructor, using the {@link #DEFAULT_BANDWIDTH_HZ default bandwidth}.
+	 * 
+	 * @param msPerFrame  duration of one audio frame in milliseconds
+	 */
+	public AudioClockEstimator(double msPerFrame) {
+		this(msPerFrame, DEFAULT_BANDWIDTH_HZ);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param msPerFrame   duration of one audio frame in milliseconds
+	 * @param bandwidthHz  loop bandwidth in Hz
+	 */
+	public AudioClockEstimator(double msPerFrame, double bandwidthHz) {
+		this.nominalPeriodNanos = msPerFrame * 1000000.0;
+		double omega = 2.0 * Math.PI * bandwidthHz * (msPerFrame / 1000.0);
+		this.b = Math.sqrt(2.0) * omega;
+		this.c = omega * omega;
+		this.frameCount = 0L;
+		this.periodNanos = nominalPeriodNanos;
+	}
+	
+	/**
+	 * Report the start of an audio frame.
+	 * 
+	 * @param audioTimeMs  AudioContext time (in milliseconds) of the start of the frame
+	 * @param nanoTime     the value of <code>System.nanoTime()</code> at which the
+	 *                     frame started
+	 */
+	public void frameStart(double audioTimeMs, long nanoTime) {
+		if (frameCount == 0L || Math.abs(nanoTime - t1) > RESET_THRESHOLD_PERIODS * e2) {
+			// (Re)initialize the loop
+			e2 = nominalPeriodNanos;
+			t0 = nanoTime;
+			t1 = nanoTime + e2;
+			meanSquareErr = 0.0;
+		} else {
+			// Update the loop using the error between the actual
+			// and predicted frame start times
+			double e = nanoTime - t1;
+			t0 = t1;
+			t1 += b*e + e2;
+			e2 += c*e;
+			meanSquareErr += JITTER_SMOOTHING * (e*e - meanSquareErr);
+		}
+		frameCount++;
+		
+		// Publish the new mapping
+		int v = version;
+		version = v + 1;
+		frameAudioMs = audioTimeMs;
+		frameStartNanos = t0;
+		msPerNano = (nominalPeriodNanos / 1000000.0) / (t1 - t0);
+		jitterNanos = Math.sqrt(meanSquareErr);
+		periodNanos = e2;
+		version = v + 2;
+	}
+	
+	/**
+	 * Check whether at least one frame start has been reported.
+	 * 
+	 * @return true if at least one frame start has been reported
+	 */
+	public boolean isStarted() {
+		return version != 0;
+	}
+	
+	/**
+	 * Convert a <code>System.nanoTime()</code> value to AudioContext time,
+	 * using the smoothed mapping.  Should only be called
+	 * if {@link #isStarted()} returns true.
+	 * 
+	 * @param nanoTime a <code>System.nanoTime()</code> value
+	 * @return the corresponding AudioContext time in milliseconds
+	 */
+	public double toAudioTimeMs(long nanoTime) {
+		while (true) {
+			int v = version;
+			double audioMs = frameAudioMs;
+			double startNanos = frameStartNanos;
+			double scale = msPerNano;
+			if ((v & 1) == 0 && v == version) {
+				return audioMs + (nanoTime - startNanos) * scale;
+			}
+			// Snapshot was being updated: try again
+		}
+	}
+	
+	/**
+	 * Get the estimated jitter (RMS deviation of actual frame start times
+	 * from the smoothed frame start times).
+	 * 
+	 * @return estimated jitter in milliseconds
+	 */
+	public double getJitterMs() {
+		return jitterNanos / 1000000.0;
+	}
+	
+	/**
+	 * Get the estimated drift of the audio clock relative to
+	 * <code>System.nanoTime()</code>.  A positive value means audio
+	 * frames take longer (in nanoTime) than their nominal duration.
+	 * 
+	 * @return estimated drift in parts per million
+	 */
+	public double getDriftPpm() {
+		return (periodNanos / nominalPeriodNanos - 1.0) * 1000000.0;
+	}
+	
+	/**
+	 * Get the smoothed frame period.
+	 * 
+	 * @return smoothed frame period in milliseconds
+	 */
+	public double getPeriodMs() {
+		return periodNanos / 1000000.0;
+	}
+}
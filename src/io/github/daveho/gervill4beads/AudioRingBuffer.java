@@ -0,0 +1,164 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer of
+ * multichannel audio frames.  One thread writes frames from per-channel buffers
+ * using {@link #write(float[][], int, int)}, and another thread reads them
+ * into per-channel buffers using {@link #read(float[][], int, int)}.
+ * Neither operation locks or allocates.
+ * 
+ * @author David Hovemeyer
+ */
+public class AudioRingBuffer {
+	private final int channels;
+	private final int capacity;
+	private final float[] samples; // interleaved: one sample per channel per frame
+	
+	// Positions are frame counts which only increase.  The write position
+	// is only updated by the producer, and the read position only by the consumer;
+	// ordered stores make the sample data visible before the updated position.
+	private final AtomicLong writePos;
+	private final AtomicLong readPos;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param channels  the number of channels
+	 * @param capacity  the maximum number of frames the buffer can hold
+	 */
+	public AudioRingBuffer(int channels, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+		}
+		this.channels = channels;
+		this.capacity = capacity;
+		this.samples = new float[capacity * channels];
+		this.writePos = new AtomicLong(0L);
+		this.readPos = new AtomicLong(0L);
+	}
+	
+	/**
+	 * Get the number of channels.
+	 * 
+	 * @return the number of channels
+	 */
+	public int getChannels() {
+		return channels;
+	}
+	
+	/**
+	 * Get the capacity of the buffer.
+	 * 
+	 * @return the maximum number of frames the buffer can hold
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Get the number of frames available to be read.
+	 * 
+	 * @return number of frames available to be read
+	 */
+	public int getReadAvailable() {
+		return (int) (writePos.get() - readPos.get());
+	}
+	
+	/**
+	 * Get the number of frames which can be written without overwriting
+	 * frames which haven't been read yet.
+	 * 
+	 * @return number of frames which can be written
+	 */
+	public int getWriteAvailable() {
+		return capacity - getReadAvailable();
+	}
+	
+	/**
+	 * Write frames from per-channel buffers.  Must only be called by the producer thread.
+	 * 
+	 * @param src     buffers, one per channel
+	 * @param offset  index in the buffers of the first frame
+	 * @param frames  number of frames to write: must not exceed {@link #getWriteAvailable()}
+	 */
+	public void write(float[][] src, int offset, int frames) {
+		long pos = writePos.get();
+		if (frames > capacity - (int) (pos - readPos.get())) {
+			throw new IllegalArgumentException("Not enough room to write " + frames + " frames");
+		}
+		for (int ch = 0; ch < channels; ch++) {
+			float[] buf = src[ch];
+			int idx = (int) (pos % capacity) * channels + ch;
+			for (int i = 0; i < frames; i++) {
+				samples[idx] = buf[offset + i];
+				idx += channels;
+				if (idx >= samples.length) {
+					idx -= samples.length;
+				}
+			}
+		}
+		writePos.lazySet(pos + frames);
+	}
+	
+	/**
+	 * Read frames into per-channel buffers.  Must only be called by the consumer thread.
+	 * 
+	 * @param dst     buffers, one per channel
+	 * @param offset  index in the buffers at which to store the first frame
+	 * @param frames  maximum number of frames to read
+	 * @return number of frames read, which may be fewer than requested
+	 */
+	public int read(float[][] dst, int offset, int frames) {
+		long pos = readPos.get();
+		int n = Math.min(frames, (int) (writePos.get() - pos));
+		for (int ch = 0; ch < channels; ch++) {
+			float[] buf = dst[ch];
+			int idx = (int) (pos % capacity) * channels + ch;
+			for (int i = 0; i < n; i++) {
+				buf[offset + i] = samples[idx];
+				idx += channels;
+				if (idx >= samples.length) {
+					idx -= samples.length;
+				}
+			}
+		}
+		readPos.lazySet(pos + n);
+		return n;
+	}
+	
+	/**
+	 * Discard frames without reading them.  Must only be called by the consumer thread.
+	 * 
+	 * @param frames maximum number of frames to discard
+	 * @return number of frames discarded
+	 */
+	public int skip(int frames) {
+		long pos = readPos.get();
+		int n = Math.min(frames, (int) (writePos.get() - pos));
+		readPos.lazySet(pos + n);
+		return n;
+	}
+}
@@ -0,0 +1,190 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Persistent cache of the default soundbank Gervill generates when no
+ * soundbank is installed.  Generating Gervill's "emergency" soundbank takes
+ * a lot of CPU time.  Gervill shares the default soundbank among the
+ * synthesizers of a JVM, and tries to save the generated soundbank
+ * in the user's home directory, but the saved soundbank isn't tied
+ * to a particular JDK, and it is generated again on every start if
+ * the home directory isn't writable.
+ * 
+ * <p>Before the first {@link GervillUGen} is created, the cache checks whether
+ * Gervill would have to generate its default soundbank (i.e., whether
+ * no soundbank is installed where Gervill looks for one).  If so, it loads
+ * the soundbank saved for the running JDK build in the cache directory,
+ * or generates and saves it if there is no such file, and gives it
+ * to Gervill as the default soundbank, which is then shared by all
+ * synthesizers.  If Gervill's internals can't be accessed using
+ * reflection, Gervill finds its default soundbank as usual.
+ * 
+ * @author David Hovemeyer
+ */
+public class DefaultSoundbankCache {
+	/**
+	 * Whether the cache is used.  Can be disabled by setting the
+	 * <code>gervill4beads.soundbankCache</code> system property to false.
+	 */
+	public static boolean DEFAULT_ENABLED = !"false".equals(System.getProperty("gervill4beads.soundbankCache"));
+	
+	/**
+	 * Directory where the generated soundbank is saved: the value of the
+	 * <code>gervill4beads.cacheDir</code> system property, or the
+	 * <code>.gervill4beads</code> directory in the user's home directory.
+	 */
+	public static File DEFAULT_CACHE_DIR = new File(System.getProperty("gervill4beads.cacheDir",
+			new File(System.getProperty("user.home"), ".gervill4beads").getPath()));
+	
+	private static boolean installed;
+	private static Soundbank soundbank;
+	
+	/**
+	 * Get the cached default soundbank.
+	 * 
+	 * @return the default soundbank, or null if the cache has not
+	 *         provided a default soundbank to Gervill
+	 */
+	public static synchronized Soundbank getSoundbank() {
+		return soundbank;
+	}
+	
+	/**
+	 * Get the file where the generated soundbank is saved for the running JDK build.
+	 * 
+	 * @return the cache file
+	 */
+	public static File getCacheFile() {
+		String version = System.getProperty("java.vendor") + "-" + System.getProperty("java.runtime.version");
+		return new File(DEFAULT_CACHE_DIR, "emergency-soundbank-" + version.replaceAll("[^A-Za-z0-9._+-]", "_") + ".sf2");
+	}
+	
+	/**
+	 * Provide the cached default soundbank to Gervill, if Gervill would
+	 * otherwise generate it.  Only has an effect the first time it is called.
+	 * 
+	 * @param synth a SoftSynthesizer which has not been opened
+	 */
+	static synchronized void install(Synthesizer synth) {
+		if (installed || !DEFAULT_ENABLED) {
+			return;
+		}
+		installed = true;
+		
+		Field defaultSoundBank;
+		try {
+			defaultSoundBank = synth.getClass().getDeclaredField("defaultSoundBank");
+			defaultSoundBank.setAccessible(true);
+			if (defaultSoundBank.get(null) != null || hasInstalledSoundbank()) {
+				return;
+			}
+		} catch (Exception e) {
+			// Includes InaccessibleObjectException on Java 9 and later
+			return;
+		}
+		
+		Soundbank sb = load();
+		if (sb == null) {
+			return;
+		}
+		try {
+			defaultSoundBank.set(null, sb);
+			soundbank = sb;
+		} catch (IllegalAccessException e) {
+			// Gervill will find its default soundbank as usual
+		}
+	}
+	
+	// Load the saved soundbank, or generate and save it
+	private static Soundbank load() {
+		File file = getCacheFile();
+		if (file.isFile()) {
+			try {
+				return MidiSystem.getSoundbank(file);
+			} catch (Exception e) {
+				// Corrupt file: generate the soundbank again
+				file.delete();
+			}
+		}
+		
+		Object sb;
+		try {
+			sb = Class.forName("com.sun.media.sound.EmergencySoundbank").getMethod("createSoundbank").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+		
+		// Save to a temporary file first, so that other JVMs never see
+		// a partially-written soundbank
+		try {
+			File dir = file.getParentFile();
+			if (dir.isDirectory() || dir.mkdirs()) {
+				File tmp = File.createTempFile("soundbank", ".tmp", dir);
+				sb.getClass().getMethod("save", File.class).invoke(sb, tmp);
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+				}
+			}
+		} catch (Exception e) {
+			// The soundbank just won't be saved
+		}
+		return (Soundbank) sb;
+	}
+	
+	// Check whether there is a soundbank installed where Gervill
+	// looks for its default soundbank (before generating one)
+	private static boolean hasInstalledSoundbank() {
+		File libAudio = new File(new File(System.getProperty("java.home"), "lib"), "audio");
+		File[] files = libAudio.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				String name = f.getName().toLowerCase();
+				if (f.isFile() && (name.endsWith(".sf2") || name.endsWith(".dls"))) {
+					return true;
+				}
+			}
+		}
+		String os = System.getProperty("os.name");
+		if (os.startsWith("Linux")) {
+			String[] dirs = { "/usr/share/soundfonts/", "/usr/local/share/soundfonts/",
+					"/usr/share/sounds/sf2/", "/usr/local/share/sounds/sf2/" };
+			for (String dir : dirs) {
+				if (new File(dir, "default.sf2").isFile()) {
+					return true;
+				}
+			}
+		} else if (os.startsWith("Windows")) {
+			if (new File(System.getenv("SystemRoot") + "\\system32\\drivers\\gm.dls").isFile()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
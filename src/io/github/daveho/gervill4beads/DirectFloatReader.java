@@ -0,0 +1,144 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Reads audio directly from the float buffers of a Gervill
+ * SoftSynthesizer's main mixer, bypassing the <code>AudioInputStream</code>
+ * returned by <code>openStream</code>.  The stream converts each
+ * control buffer of floats to bytes, which {@link GervillUGen} would
+ * otherwise convert back to floats.
+ * 
+ * <p>Gervill's mixer internals aren't part of any public API, so they
+ * are accessed using reflection.  On JVMs which don't allow that access
+ * (e.g., Java 9 and later, unless the <code>com.sun.media.sound</code> package
+ * of the <code>java.desktop</code> module is opened), {@link #create(Synthesizer, int)}
+ * returns null, and the stream must be used instead.
+ * 
+ * @author David Hovemeyer
+ */
+class DirectFloatReader {
+	private static final Object[] NO_ARGS = new Object[0];
+	
+	private final Object mixer;
+	private final Method processAudioBuffers;
+	private final Method array;
+	private final Object[] channelBuffers;
+	private final int controlBufferSize;
+	private final float[][] rendered;
+	private int pos;
+	
+	private DirectFloatReader(Object mixer, Method processAudioBuffers, Method array,
+			Object[] channelBuffers, int controlBufferSize) {
+		this.mixer = mixer;
+		this.processAudioBuffers = processAudioBuffers;
+		this.array = array;
+		this.channelBuffers = channelBuffers;
+		this.controlBufferSize = controlBufferSize;
+		this.rendered = new float[channelBuffers.length][];
+		this.pos = controlBufferSize; // no rendered audio yet
+	}
+	
+	/**
+	 * Create a DirectFloatReader for a SoftSynthesizer whose stream
+	 * has been opened.
+	 * 
+	 * @param synth     the SoftSynthesizer
+	 * @param channels  the number of channels of the synthesizer's output
+	 * @return the DirectFloatReader, or null if the synthesizer's
+	 *         internals can't be accessed
+	 */
+	public static DirectFloatReader create(Synthesizer synth, int channels) {
+		try {
+			Field mixerField = synth.getClass().getDeclaredField("mainmixer");
+			mixerField.setAccessible(true);
+			Object mixer = mixerField.get(synth);
+			
+			Method processAudioBuffers = mixer.getClass().getDeclaredMethod("processAudioBuffers");
+			processAudioBuffers.setAccessible(true);
+			Field buffersField = mixer.getClass().getDeclaredField("buffers");
+			buffersField.setAccessible(true);
+			Object[] buffers = (Object[]) buffersField.get(mixer);
+			
+			// The output buffers for the left and right channels are the
+			// first two elements of the mixer's buffers array (for mono
+			// output, only the left buffer is used)
+			Object[] channelBuffers = new Object[channels];
+			System.arraycopy(buffers, 0, channelBuffers, 0, channels);
+			
+			Class<?> bufferCls = channelBuffers[0].getClass();
+			Method array = bufferCls.getMethod("array");
+			array.setAccessible(true);
+			Method getSize = bufferCls.getMethod("getSize");
+			getSize.setAccessible(true);
+			int controlBufferSize = (Integer) getSize.invoke(channelBuffers[0], NO_ARGS);
+			
+			return new DirectFloatReader(mixer, processAudioBuffers, array, channelBuffers, controlBufferSize);
+		} catch (Exception e) {
+			// Includes InaccessibleObjectException on Java 9 and later
+			return null;
+		}
+	}
+	
+	/**
+	 * Read rendered audio into per-channel buffers, rendering
+	 * more control buffers as needed.
+	 * 
+	 * @param out     output buffers, one per channel
+	 * @param frames  number of frames to read
+	 * @param gain    gain applied to the first frame, for each channel
+	 * @param delta   amount added to the gain for each subsequent frame, for each channel
+	 */
+	public void read(float[][] out, int frames, float[] gain, float[] delta) {
+		int n = 0;
+		while (n < frames) {
+			if (pos == controlBufferSize) {
+				renderControlBuffer();
+			}
+			int count = Math.min(frames - n, controlBufferSize - pos);
+			for (int ch = 0; ch < rendered.length; ch++) {
+				SampleOps.copy(rendered[ch], pos, out[ch], n, count, gain[ch] + n * delta[ch], delta[ch]);
+			}
+			pos += count;
+			n += count;
+		}
+	}
+	
+	private void renderControlBuffer() {
+		try {
+			processAudioBuffers.invoke(mixer, NO_ARGS);
+			// The mixer swaps buffer arrays while processing, so the arrays
+			// must be retrieved again for every control buffer
+			for (int ch = 0; ch < channelBuffers.length; ch++) {
+				rendered[ch] = (float[]) array.invoke(channelBuffers[ch], NO_ARGS);
+			}
+			pos = 0;
+		} catch (Exception e) {
+			throw new RuntimeException("Could not render audio from Gervill synth", e);
+		}
+	}
+}
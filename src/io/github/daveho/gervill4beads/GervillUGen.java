@@ -21,16 +21,26 @@
 
 package io.github.daveho.gervill4beads;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.ObjectName;
+import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Soundbank;
 import javax.sound.midi.Synthesizer;
+import javax.sound.midi.VoiceStatus;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioFormat.Encoding;
 import javax.sound.sampled.AudioInputStream;
@@ -47,36 +57,126 @@ import net.beadsproject.beads.core.UGen;
  * @author David Hovemeyer
  */
 public class GervillUGen extends UGen {
+	/**
+	 * How to fill the part of a buffer that could not be read
+	 * from the synthesizer's audio stream before the read deadline.
+	 */
+	public enum DropoutFill {
+		/** Fill with silence. */
+		SILENCE,
+		
+		/** Repeat the corresponding samples of the last completely read buffer. */
+		REPEAT_LAST,
+	}
+	
+	/**
+	 * Whether GervillUGens should read audio directly from Gervill's
+	 * internal float buffers when possible, rather than decoding
+	 * the bytes of its audio stream.
+	 */
+	public static boolean DEFAULT_DIRECT_FLOAT_PATH = true;
+	
+	/**
+	 * Byte order of the audio stream requested from Gervill.  Native byte
+	 * order avoids swapping bytes when encoding and decoding each sample.
+	 */
+	public static ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.nativeOrder();
+	
+	/**
+	 * Default idle threshold: when idle bypass is enabled, output whose peak
+	 * level stays below this (about -90 dBFS) is considered silent.
+	 */
+	public static float DEFAULT_IDLE_THRESHOLD = 0.00003f;
+	
+	/**
+	 * Default idle hold time: how long (in milliseconds) the output must
+	 * remain silent before the synthesizer is considered idle.
+	 */
+	public static double DEFAULT_IDLE_HOLD_MS = 100.0;
+	
+	/**
+	 * Default render quantum, in frames: the number of frames read from
+	 * Gervill at a time.  0 means one AudioContext buffer.
+	 */
+	public static int DEFAULT_RENDER_QUANTUM = 0;
+	
 	private Synthesizer synth;
 	private Receiver synthRecv;
 	private AudioInputStream synthAis;
+	private AudioFormat format;
 	private ByteBuffer byteBuffer;
 	private FloatBuffer floatBuffer;
+	private DirectFloatReader directReader;
+	private volatile long readDeadlineNanos;
+	private volatile DropoutFill dropoutFill;
+	private float[][] lastGood;
+	private int skipBytes;
+	private volatile long shortReads;
+	private volatile long readDeadlineMisses;
+	private volatile float gain;
+	private volatile float pan;
+	private float[] appliedGain;
+	private float[] gainStart;
+	private float[] gainDelta;
+	private float[] interleaved;
+	private volatile GervillUGenStats stats;
+	private ObjectName statsName;
+	private volatile RenderAheadThread renderAhead;
+	private volatile long renderAheadLeadUs;
+	private volatile boolean idleBypass;
+	private volatile float idleThreshold;
+	private int idleHoldBuffers;
+	private int quietBuffers;
+	private volatile boolean idle;
+	private final AtomicLong sendCount = new AtomicLong();
+	private long renderedSendCount;
+	private long skippedFrames;
+	private volatile long skippedUs;
+	private volatile long latestScheduledUs;
+	private volatile long idleBufferCount;
+	private volatile RenderGovernor governor;
+	private float[][] quantumBuf;
+	private int quantumFrames;
+	private int quantumPos;
+	private int quantumAvail;
+	private volatile long quantumLeadUs;
+	private final List<Soundbank> cachedSoundbanks = new ArrayList<Soundbank>();
+	private volatile LazyInstrumentLoader lazyLoader;
 
 	/**
-	 * Constructor.
+	 * Constructor.  The UGen has two (stereo) outputs.
 	 * 
 	 * @param context  the AudioContext
 	 * @param info     info, used when opening an audio input stream from the synthesizer
 	 * @throws MidiUnavailableException
 	 */
 	public GervillUGen(AudioContext context, Map<String, Object> info) throws MidiUnavailableException {
-		super(context, 2);
+		this(context, info, 2);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param context   the AudioContext
+	 * @param info      info, used when opening an audio input stream from the synthesizer
+	 * @param channels  number of outputs: 1 for mono, 2 for stereo
+	 * @throws MidiUnavailableException
+	 */
+	public GervillUGen(AudioContext context, Map<String, Object> info, int channels) throws MidiUnavailableException {
+		super(context, channels);
+		if (channels != 1 && channels != 2) {
+			throw new IllegalArgumentException("GervillUGen must have 1 or 2 channels");
+		}
 		
-		// Use reflection to instantiate a SoftSynthesizer object.
+		// Instantiate a SoftSynthesizer object directly.
 		// We definitely do NOT want to do this via MidiSystem, since
 		//   (1) we won't necessarily get a SoftSynthesizer, and
 		//   (2) it won't allow multiple SoftSynthesizers to be open
 		//       at the same time
-		try {
-			Class<?> synthCls = Class.forName("com.sun.media.sound.SoftSynthesizer");
-			Object synthObj = synthCls.newInstance();
-			this.synth = (Synthesizer) synthObj;
-		} catch (ClassNotFoundException e) {
-			throw new MidiUnavailableException("Could not find SoftSynthesizer class: " + e.toString());
-		} catch (Throwable e) {
-			throw new MidiUnavailableException("Could not create SoftSynthesizer object: " + e.toString());
-		}
+		this.synth = SoftSynthesizerBridge.newSynthesizer();
+
+		// Avoid generating Gervill's default soundbank, if possible
+		DefaultSoundbankCache.install(synth);
 
 		// Get the synthesizer's MIDI Receiver
 		synthRecv = synth.getReceiver();
@@ -85,28 +185,58 @@ public class GervillUGen extends UGen {
 		float sampleRate = context.getSampleRate();
 		
 		// Create an AudioFormat with same sample rate as AudioContext's,
-		// using PCM_FLOAT encoding, 32 bits per sample.  This makes
-		// calculateBuffer very simple: we just pull floats from Gervill
-		// and copy them into the buffer for each output channel.
+		// using PCM_FLOAT encoding, 32 bits per sample, in the default
+		// (normally native) byte order.  This makes calculateBuffer very
+		// simple: we just pull floats from Gervill and copy them into
+		// the buffer for each output channel.
 		int sampleSize = 32;
-		AudioFormat fmt = new AudioFormat(Encoding.PCM_FLOAT, sampleRate, sampleSize, 2, ((2*sampleSize)+7)/8, sampleRate, true);
+		ByteOrder byteOrder = DEFAULT_BYTE_ORDER;
+		AudioFormat fmt = new AudioFormat(Encoding.PCM_FLOAT, sampleRate, sampleSize, channels,
+				((channels*sampleSize)+7)/8, sampleRate, byteOrder == ByteOrder.BIG_ENDIAN);
+		this.format = fmt;
 
 		// The AudioSynthesizer/SoftSynthesizer types aren't exported.
-		// So, cheat and use reflection to call openStream.  There literally
-		// doesn't seem to be any other way of getting an AudioInputStream
-		// from a Synthesizer in Java!
-		try {
-			Method openStream = synth.getClass().getMethod("openStream", new Class[]{AudioFormat.class, Map.class});
-			this.synthAis = (AudioInputStream) openStream.invoke(synth, fmt, info);
-		} catch (Throwable e) {
-			throw new MidiUnavailableException("Could not get openStream method for Synthesizer: " + e.toString());
-		}
+		// So, cheat and call openStream through a cached MethodHandle.
+		// There literally doesn't seem to be any other way of getting
+		// an AudioInputStream from a Synthesizer in Java!
+		this.synthAis = SoftSynthesizerBridge.openStream(synth, fmt, info);
 
 		// Use a ByteBuffer (with a FloatBuffer view) to store audio data
 		// produce by Gervill.  This is a simple and efficient mechanism
 		// for grabbing the data.
-		byteBuffer = ByteBuffer.allocate(fmt.getFrameSize() * bufferSize);
+		byteBuffer = ByteBuffer.allocate(fmt.getFrameSize() * bufferSize).order(byteOrder);
 		floatBuffer = byteBuffer.asFloatBuffer();
+		
+		// By default, give up reading from the stream once a buffer's duration has passed
+		readDeadlineNanos = (long) (context.samplesToMs(bufferSize) * 1000000.0);
+		dropoutFill = DropoutFill.SILENCE;
+		lastGood = new float[channels][bufferSize];
+		
+		// Output gain and pan, applied while copying audio from Gervill
+		gain = 1.0f;
+		pan = 0.0f;
+		appliedGain = new float[channels];
+		Arrays.fill(appliedGain, 1.0f);
+		gainStart = new float[channels];
+		gainDelta = new float[channels];
+		interleaved = new float[channels * bufferSize];
+		
+		idleThreshold = DEFAULT_IDLE_THRESHOLD;
+		idleHoldBuffers = Math.max(1, (int) Math.ceil(DEFAULT_IDLE_HOLD_MS / context.samplesToMs(bufferSize)));
+		
+		// If possible, bypass the stream entirely, and copy floats directly
+		// from Gervill's mixer.  The stream is used if that isn't possible.
+		if (DEFAULT_DIRECT_FLOAT_PATH) {
+			directReader = DirectFloatReader.create(synth, channels);
+		}
+		
+		if (DEFAULT_RENDER_QUANTUM > bufferSize) {
+			setRenderQuantum(DEFAULT_RENDER_QUANTUM);
+		}
+		
+		if (Instrumentation.ENABLED_BY_DEFAULT) {
+			enableInstrumentation();
+		}
 	}
 	
 	/**
@@ -127,26 +257,751 @@ public class GervillUGen extends UGen {
 		return synthRecv;
 	}
 
+	/**
+	 * Get the format of the audio stream opened from the synthesizer.
+	 * 
+	 * @return the AudioFormat
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * Load all of the instruments of a soundbank file into the synthesizer.
+	 * The soundbank is obtained from the process-wide {@link SoundbankCache},
+	 * so GervillUGens which load the same file share a single copy of
+	 * its instruments and sample data, and only the first one has to
+	 * wait for the file to be parsed.  The soundbank is released
+	 * by {@link #close()}.
+	 * 
+	 * @param file the soundbank file
+	 * @return true if the instruments were loaded
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public boolean loadSoundbank(File file) throws IOException, InvalidMidiDataException {
+		return loadSoundbank(file, false);
+	}
+	
+	/**
+	 * Load the instruments of a soundbank file into the synthesizer,
+	 * either all at once (like {@link #loadSoundbank(File)}), or lazily,
+	 * as they are selected (see {@link #enableLazyLoading(Soundbank)}).
+	 * 
+	 * @param file  the soundbank file
+	 * @param lazy  true to load instruments lazily, false to load all of them now
+	 * @return true if the instruments were loaded (always true if they are loaded lazily)
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public boolean loadSoundbank(File file, boolean lazy) throws IOException, InvalidMidiDataException {
+		SoundbankCache cache = SoundbankCache.getInstance();
+		Soundbank soundbank = cache.acquire(file);
+		synchronized (cachedSoundbanks) {
+			cachedSoundbanks.add(soundbank);
+		}
+		if (lazy) {
+			enableLazyLoading(soundbank);
+			return true;
+		}
+		return synth.loadAllInstruments(soundbank);
+	}
+	
+	/**
+	 * Load a soundbank's instruments lazily: each instrument is loaded
+	 * on a background thread when it is first selected by a bank select
+	 * and program change sent using {@link #messageReceived(Bead)} or
+	 * {@link #send(MidiMessage, long)}.  See {@link LazyInstrumentLoader}
+	 * for details.  Replaces any previous lazy loader.
+	 * 
+	 * @param soundbank the soundbank whose instruments should be loaded
+	 * @return the LazyInstrumentLoader, which can be used to choose the
+	 *         fallback for notes played while an instrument is loading, and
+	 *         to load instruments ahead of time
+	 */
+	public synchronized LazyInstrumentLoader enableLazyLoading(Soundbank soundbank) {
+		disableLazyLoading();
+		lazyLoader = new LazyInstrumentLoader(synth, soundbank);
+		return lazyLoader;
+	}
+	
+	/**
+	 * Stop loading instruments lazily.  Instruments which have already
+	 * been loaded remain loaded.
+	 */
+	public synchronized void disableLazyLoading() {
+		LazyInstrumentLoader loader = lazyLoader;
+		if (loader != null) {
+			lazyLoader = null;
+			loader.shutdown();
+		}
+	}
+	
+	/**
+	 * Get the lazy instrument loader.
+	 * 
+	 * @return the LazyInstrumentLoader, or null if instruments aren't loaded lazily
+	 */
+	public LazyInstrumentLoader getLazyLoader() {
+		return lazyLoader;
+	}
+	
+	/**
+	 * Close the GervillUGen: stop the render-ahead and lazy loading
+	 * threads (if any), unregister instrumentation, close the synthesizer, and release
+	 * soundbanks loaded using {@link #loadSoundbank(File)}.
+	 */
+	public void close() {
+		disableRenderAhead();
+		disableLazyLoading();
+		disableInstrumentation();
+		synth.close();
+		SoundbankCache cache = SoundbankCache.getInstance();
+		synchronized (cachedSoundbanks) {
+			for (Soundbank soundbank : cachedSoundbanks) {
+				cache.release(soundbank);
+			}
+			cachedSoundbanks.clear();
+		}
+	}
+	
+	/**
+	 * Check whether audio is read directly from Gervill's internal
+	 * float buffers (rather than from its audio stream).
+	 * 
+	 * @return true if audio is read directly from Gervill's float buffers
+	 */
+	public boolean isDirectFloatPath() {
+		return directReader != null;
+	}
+
+	/**
+	 * Set the output gain.  The gain is applied while copying audio from Gervill,
+	 * so no separate Gain UGen is needed.  Changes are ramped over one buffer.
+	 * 
+	 * @param gain the gain (1.0 for unity gain)
+	 */
+	public void setGain(float gain) {
+		this.gain = gain;
+	}
+	
+	/**
+	 * Get the output gain.
+	 * 
+	 * @return the output gain
+	 */
+	public float getGain() {
+		return gain;
+	}
+	
+	/**
+	 * Set the output pan (balance): at -1.0, only the left channel is heard,
+	 * at 1.0 only the right channel, and at 0.0 (the default) both channels
+	 * are heard at full level.  Ignored for mono output.  Like the gain,
+	 * the pan is applied while copying audio from Gervill, and changes
+	 * are ramped over one buffer.
+	 * 
+	 * @param pan the pan, from -1.0 to 1.0
+	 */
+	public void setPan(float pan) {
+		this.pan = Math.max(-1.0f, Math.min(1.0f, pan));
+	}
+	
+	/**
+	 * Get the output pan.
+	 * 
+	 * @return the output pan
+	 */
+	public float getPan() {
+		return pan;
+	}
+	
+	/**
+	 * Set the render quantum: the number of frames read from Gervill
+	 * at a time.  By default, one AudioContext buffer is read from Gervill
+	 * for each buffer the GervillUGen outputs.  When the AudioContext's
+	 * buffers are small, the per-read overhead can dominate; reading
+	 * a larger quantum and serving several buffers from it improves
+	 * throughput.  Because audio up to one quantum ahead of the AudioContext
+	 * has already been rendered when a midi message arrives, message
+	 * timestamps are delayed by the difference between the quantum and the
+	 * buffer size, so that messages are still played at the correct
+	 * sample positions (relative to each other).  That difference is
+	 * the added latency.  Gain and pan changes take effect once per quantum.
+	 * The quantum is not used in render-ahead mode.  Should be called
+	 * before the AudioContext is started.
+	 * 
+	 * @param frames the render quantum in frames (rounded up to a multiple
+	 *               of the AudioContext's buffer size), or 0 to read
+	 *               one buffer at a time
+	 */
+	public void setRenderQuantum(int frames) {
+		if (frames < 0) {
+			throw new IllegalArgumentException("Invalid render quantum: " + frames);
+		}
+		int quantum = ((frames + bufferSize - 1) / bufferSize) * bufferSize;
+		if (quantum <= bufferSize) {
+			quantumBuf = null;
+			quantumFrames = 0;
+			quantumLeadUs = 0L;
+		} else {
+			if (interleaved.length < outs * quantum) {
+				// Large enough for the stream path to read a whole quantum
+				byteBuffer = ByteBuffer.allocate(format.getFrameSize() * quantum).order(byteBuffer.order());
+				floatBuffer = byteBuffer.asFloatBuffer();
+				interleaved = new float[outs * quantum];
+			}
+			quantumBuf = new float[outs][quantum];
+			quantumFrames = quantum;
+			quantumLeadUs = (long) (context.samplesToMs(quantum - bufferSize) * 1000.0);
+		}
+		quantumPos = quantumFrames;
+		quantumAvail = 0;
+	}
+	
+	/**
+	 * Get the render quantum.
+	 * 
+	 * @return the render quantum in frames, or 0 if one buffer is read at a time
+	 */
+	public int getRenderQuantum() {
+		return quantumFrames;
+	}
+	
+	/**
+	 * Enable or disable idle bypass.  When enabled, once the synthesizer
+	 * has no active voices, no pending timestamped messages, and its output
+	 * (including reverb and chorus tails) has stayed below the idle threshold
+	 * for the idle hold time, rendering is skipped entirely and silence is
+	 * output, until the next midi message arrives.  This makes idle GervillUGens
+	 * very cheap.
+	 * 
+	 * <p>Idle bypass requires that midi messages are delivered using
+	 * {@link #messageReceived(Bead)} or {@link #send(MidiMessage, long)}
+	 * rather than directly to the {@link #getSynthRecv() synthesizer's receiver},
+	 * since that is how the GervillUGen knows to resume rendering.  It has no
+	 * effect in render-ahead mode.
+	 * 
+	 * @param idleBypass true to enable idle bypass, false to disable it
+	 */
+	public void setIdleBypass(boolean idleBypass) {
+		this.idleBypass = idleBypass;
+		if (!idleBypass) {
+			idle = false;
+		}
+	}
+	
+	/**
+	 * Set the idle threshold: the peak output level below which
+	 * the output is considered silent.
+	 * 
+	 * @param threshold the idle threshold (linear amplitude)
+	 */
+	public void setIdleThreshold(float threshold) {
+		this.idleThreshold = threshold;
+	}
+	
+	/**
+	 * Check whether rendering is currently being bypassed because
+	 * the synthesizer is idle.
+	 * 
+	 * @return true if the synthesizer is idle
+	 */
+	public boolean isIdle() {
+		return idle;
+	}
+	
+	/**
+	 * Get the number of buffers for which rendering was bypassed
+	 * because the synthesizer was idle.
+	 * 
+	 * @return number of bypassed buffers
+	 */
+	public long getIdleBufferCount() {
+		return idleBufferCount;
+	}
+	
+	/**
+	 * Set the read deadline: the maximum time to spend reading a buffer
+	 * of audio from the synthesizer's audio stream.  If the stream
+	 * returns less than a full buffer (a short read) and the deadline has
+	 * passed, the rest of the buffer is filled according to the
+	 * {@link #setDropoutFill(DropoutFill) dropout fill}, and the missing
+	 * audio is discarded when it arrives.  Note that a read which blocks
+	 * can't be interrupted, so the deadline is only checked between reads.
+	 * The default deadline is the duration of one buffer.  Doesn't apply
+	 * when reading directly from Gervill's float buffers, or in render-ahead mode.
+	 * 
+	 * @param deadlineMs the read deadline in milliseconds, or 0 to keep
+	 *                   reading until the buffer is full
+	 */
+	public void setReadDeadlineMs(double deadlineMs) {
+		this.readDeadlineNanos = (long) (deadlineMs * 1000000.0);
+	}
+	
+	/**
+	 * Set how to fill the part of a buffer which couldn't be read
+	 * before the read deadline.
+	 * 
+	 * @param dropoutFill the {@link DropoutFill}
+	 */
+	public void setDropoutFill(DropoutFill dropoutFill) {
+		this.dropoutFill = dropoutFill;
+	}
+	
+	/**
+	 * Get the number of short reads: reads from the synthesizer's
+	 * audio stream which returned less audio than requested.
+	 * 
+	 * @return the number of short reads
+	 */
+	public long getShortReadCount() {
+		return shortReads;
+	}
+	
+	/**
+	 * Get the number of read deadline misses: buffers which were
+	 * only partially read from the synthesizer's audio stream before
+	 * the read deadline passed.
+	 * 
+	 * @return the number of read deadline misses
+	 */
+	public long getReadDeadlineMissCount() {
+		return readDeadlineMisses;
+	}
+
+	/**
+	 * Enable instrumentation: collect render time statistics,
+	 * register them as a JMX MBean, and emit JDK Flight Recorder
+	 * events (if available).  Instrumentation can also be enabled for
+	 * all GervillUGens by setting the <code>gervill4beads.instrumentation</code>
+	 * system property to true.
+	 * 
+	 * @return the statistics object
+	 */
+	public synchronized GervillUGenStats enableInstrumentation() {
+		if (stats == null) {
+			GervillUGenStats newStats = new GervillUGenStats(context.samplesToMs(bufferSize), bufferSize);
+			statsName = Instrumentation.register(newStats, "GervillUGen");
+			stats = newStats;
+		}
+		return stats;
+	}
+	
+	/**
+	 * Disable instrumentation, and unregister the statistics MBean.
+	 */
+	public synchronized void disableInstrumentation() {
+		if (stats != null) {
+			stats = null;
+			Instrumentation.unregister(statsName);
+			statsName = null;
+		}
+	}
+	
+	/**
+	 * Get the render time statistics.
+	 * 
+	 * @return the statistics, or null if instrumentation is not enabled
+	 */
+	public GervillUGenStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Enable render-ahead mode: a dedicated thread renders audio
+	 * from the synthesizer up to <code>leadFrames</code> frames ahead of the
+	 * audio thread, so that <code>calculateBuffer</code> only needs to copy
+	 * audio that has already been rendered.  This absorbs spikes in
+	 * Gervill's render time, at the cost of adding the lead time
+	 * to the latency of midi messages: message timestamps are
+	 * delayed by the lead time, so that they reach the synthesizer before
+	 * it renders the audio in which they occur.
+	 * Should be called before the AudioContext is started.
+	 * 
+	 * @param leadFrames maximum number of frames to render ahead
+	 *                   (at least the AudioContext's buffer size)
+	 */
+	public synchronized void enableRenderAhead(int leadFrames) {
+		if (leadFrames < bufferSize) {
+			throw new IllegalArgumentException("Render-ahead lead must be at least one buffer (" + bufferSize + " frames)");
+		}
+		disableRenderAhead();
+		RenderAheadThread thread = new RenderAheadThread(this, outs, bufferSize, leadFrames, context.samplesToMs(bufferSize));
+		renderAheadLeadUs = (long) (context.samplesToMs(leadFrames) * 1000.0);
+		renderAhead = thread;
+		thread.start();
+	}
+	
+	/**
+	 * Disable render-ahead mode, and stop the render thread.
+	 * Audio which was rendered ahead but not yet played is discarded.
+	 */
+	public synchronized void disableRenderAhead() {
+		RenderAheadThread thread = renderAhead;
+		if (thread != null) {
+			thread.shutdown();
+			renderAhead = null;
+			renderAheadLeadUs = 0L;
+		}
+	}
+	
+	/**
+	 * Get the number of underruns in render-ahead mode: buffers for which
+	 * the render thread had not rendered enough audio (and silence was output instead).
+	 * 
+	 * @return number of underruns, or 0 if render-ahead mode is not enabled
+	 */
+	public long getUnderrunCount() {
+		RenderAheadThread thread = renderAhead;
+		return thread != null ? thread.getUnderrunCount() : 0L;
+	}
+	
+	/**
+	 * Get the number of overruns in render-ahead mode: times the render thread
+	 * found the ring buffer full for longer than one buffer period, because
+	 * the audio thread was not consuming audio.
+	 * 
+	 * @return number of overruns, or 0 if render-ahead mode is not enabled
+	 */
+	public long getOverrunCount() {
+		RenderAheadThread thread = renderAhead;
+		return thread != null ? thread.getOverrunCount() : 0L;
+	}
+
+	/**
+	 * Enable the CPU-budget governor, which lowers the polyphony limit,
+	 * interpolation quality, and effects when rendering comes close
+	 * to missing its deadline, and restores them when the load drops.
+	 * See {@link RenderGovernor} for details.
+	 * 
+	 * @return the governor
+	 */
+	public synchronized RenderGovernor enableGovernor() {
+		if (governor == null) {
+			governor = new RenderGovernor(this, new SynthControl(synth));
+		}
+		return governor;
+	}
+	
+	/**
+	 * Disable the CPU-budget governor, and restore full quality.
+	 * Should not be called while the AudioContext is running.
+	 */
+	public synchronized void disableGovernor() {
+		RenderGovernor gov = governor;
+		if (gov != null) {
+			governor = null;
+			gov.reset();
+		}
+	}
+	
+	/**
+	 * Get the CPU-budget governor.
+	 * 
+	 * @return the governor, or null if the governor is not enabled
+	 */
+	public RenderGovernor getGovernor() {
+		return governor;
+	}
+
 	@Override
 	protected void messageReceived(Bead message) {
-		if (Midi.hasMidiMessage(message)) {
+		if (Midi.hasMidiEventBatch(message)) {
+			// Forward an entire frame's worth of midi messages
+			MidiEventBatch batch = Midi.getMidiEventBatch(message);
+			int count = batch.getEventCount();
+			long[] timestamps = batch.getTimeStamps();
+			for (int i = 0; i < count; i++) {
+				// Events modified by a MidiTransform only have a packed message:
+				// Midi.getMessage creates (and keeps) a ShortMessage for them
+				send(Midi.getMessage(batch, i), timestamps[i]);
+			}
+		} else if (Midi.hasMidiMessage(message)) {
 			MidiMessage msg = Midi.getMidiMessage(message);
 			long timestamp = Midi.getMidiTimestamp(message);
 //			System.out.printf("GervillUGen: received midi message (status=%d,ts=%d)!\n", msg.getStatus(), timestamp);
-			synthRecv.send(msg, timestamp);
+			send(msg, timestamp);
+		}
+	}
+	
+	/**
+	 * Send a midi message to the synthesizer.  The timestamp is
+	 * adjusted for the render-ahead lead time or render quantum (if any) and for
+	 * audio skipped while the synthesizer was idle, so that the message
+	 * is played at the given AudioContext time.  If rendering was
+	 * bypassed because the synthesizer was idle, it is resumed.
+	 * If the {@link #enableGovernor() governor} is enabled, note-on
+	 * messages are dropped while its polyphony limit is reached.
+	 * If instruments are {@link #enableLazyLoading(Soundbank) loaded lazily},
+	 * the message may select an instrument to load, and note-on messages
+	 * may be dropped while their instrument is loading.
+	 * 
+	 * @param msg        the MidiMessage
+	 * @param timestamp  the timestamp in microseconds of AudioContext time,
+	 *                   or -1 to play the message immediately
+	 */
+	public void send(MidiMessage msg, long timestamp) {
+		LazyInstrumentLoader loader = lazyLoader;
+		if (loader != null && !loader.observe(msg)) {
+			return;
 		}
+		RenderGovernor gov = governor;
+		if (gov != null && isNoteOn(msg) && !gov.allowNoteOn()) {
+			return;
+		}
+		if (timestamp >= 0L) {
+			long leadUs = renderAhead != null ? renderAheadLeadUs : quantumLeadUs;
+			timestamp += leadUs - skippedUs;
+			if (timestamp > latestScheduledUs) {
+				latestScheduledUs = timestamp;
+			}
+		}
+		synthRecv.send(msg, timestamp);
+		// Count the message before resuming rendering, so that checkIdle
+		// can tell whether it has been rendered
+		sendCount.incrementAndGet();
+		idle = false;
 	}
 
 	@Override
 	public void calculateBuffer() {
+		render(bufOut);
+	}
+	
+	/**
+	 * Render one buffer of audio into the given output buffers.
+	 * Package-private so that {@link ShardedGervillUGen} can render
+	 * shards into their own buffers.
+	 * 
+	 * @param out output buffers, one per channel, each with at least
+	 *            <code>bufferSize</code> elements
+	 */
+	void render(float[][] out) {
 		try {
-			synthAis.read(byteBuffer.array());
-			for (int i = 0; i < bufferSize; i++) {
-				bufOut[0][i] = floatBuffer.get(i*2);
-				bufOut[1][i] = floatBuffer.get(i*2 + 1);
+			RenderAheadThread thread = renderAhead;
+			if (thread != null) {
+				// Audio has already been rendered by the render thread
+				thread.read(out, bufferSize);
+				return;
+			}
+			
+			if (idle) {
+				// Nothing to render: just output silence, and keep track
+				// of how far the synthesizer's clock is behind
+				for (int ch = 0; ch < out.length; ch++) {
+					Arrays.fill(out[ch], 0, bufferSize, 0.0f);
+				}
+				skippedFrames += bufferSize;
+				skippedUs = (long) (context.samplesToMs(skippedFrames) * 1000.0);
+				idleBufferCount++;
+				return;
+			}
+			
+			GervillUGenStats st = stats;
+			long renderStart = st != null ? st.renderStart() : 0L;
+			RenderGovernor gov = governor;
+			long govStart = gov != null ? System.nanoTime() : 0L;
+			// Render time is judged against the duration of the frames
+			// rendered: a whole quantum when this buffer starts a new one
+			int rendered = bufferSize;
+			int n;
+			if (quantumBuf != null) {
+				if (quantumPos == quantumFrames) {
+					rendered = quantumFrames;
+				}
+				n = readFromQuantum(out);
+			} else {
+				n = readFromSynth(out, bufferSize, readDeadlineNanos);
+			}
+			if (st != null) {
+				st.renderEnd(renderStart, rendered);
+			}
+			if (gov != null) {
+				gov.bufferRendered(System.nanoTime() - govStart, rendered);
+			}
+			
+			DropoutFill fill = dropoutFill;
+			if (n < bufferSize) {
+				// Controlled dropout: don't leave stale samples in the buffer
+				for (int ch = 0; ch < out.length; ch++) {
+					if (fill == DropoutFill.REPEAT_LAST) {
+						System.arraycopy(lastGood[ch], n, out[ch], n, bufferSize - n);
+					} else {
+						Arrays.fill(out[ch], n, bufferSize, 0.0f);
+					}
+				}
+			} else if (fill == DropoutFill.REPEAT_LAST) {
+				for (int ch = 0; ch < out.length; ch++) {
+					System.arraycopy(out[ch], 0, lastGood[ch], 0, bufferSize);
+				}
+			}
+			
+			if (idleBypass) {
+				checkIdle(out);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("IOException reading data from Gervill synth", e);
 		}
 	}
+	
+	/**
+	 * Read audio from the synthesizer: directly from its float buffers
+	 * if possible, otherwise from its audio stream.
+	 * 
+	 * @param out            output buffers, one per channel
+	 * @param frames         number of frames to read (at most the larger of <code>bufferSize</code> and the render quantum)
+	 * @param deadlineNanos  maximum time to spend reading from the audio stream,
+	 *                       or 0 to keep reading until all frames have been read
+	 * @return the number of frames read: less than requested only if
+	 *         the deadline passed
+	 * @throws IOException
+	 */
+	int readFromSynth(float[][] out, int frames, long deadlineNanos) throws IOException {
+		// Messages sent before this point are rendered by this read
+		renderedSendCount = sendCount.get();
+		updateGains(frames);
+		if (directReader != null) {
+			directReader.read(out, frames, gainStart, gainDelta);
+			return frames;
+		}
+		
+		long start = System.nanoTime();
+		byte[] buf = byteBuffer.array();
+		
+		// Discard audio which arrived too late for earlier buffers,
+		// so that the stream stays aligned with the AudioContext
+		while (skipBytes > 0) {
+			int rc = synthAis.read(buf, 0, Math.min(skipBytes, buf.length));
+			if (rc < 0) {
+				throw new IOException("Unexpected end of stream from Gervill synth");
+			}
+			skipBytes -= rc;
+		}
+		
+		int channels = outs;
+		int frameSize = channels * 4;
+		int len = frames * frameSize;
+		int n = 0;
+		while (n < len) {
+			int rc = synthAis.read(buf, n, len - n);
+			if (rc < 0) {
+				throw new IOException("Unexpected end of stream from Gervill synth");
+			}
+			n += rc;
+			if (n < len) {
+				shortReads++;
+				if (deadlineNanos > 0L && System.nanoTime() - start > deadlineNanos) {
+					readDeadlineMisses++;
+					skipBytes = len - n;
+					break;
+				}
+			}
+		}
+		
+		// Decode complete frames (a partial frame at the end is discarded)
+		// with a single bulk get, then split them into channels
+		int complete = n / frameSize;
+		floatBuffer.get(interleaved, 0, complete * channels);
+		floatBuffer.rewind();
+		if (channels == 2) {
+			SampleOps.deinterleave(interleaved, out[0], out[1], complete,
+					gainStart[0], gainDelta[0], gainStart[1], gainDelta[1]);
+		} else {
+			SampleOps.copy(interleaved, 0, out[0], 0, complete, gainStart[0], gainDelta[0]);
+		}
+		return complete;
+	}
+	
+	private static boolean isNoteOn(MidiMessage msg) {
+		if (!(msg instanceof ShortMessage)) {
+			return false;
+		}
+		ShortMessage sm = (ShortMessage) msg;
+		return sm.getCommand() == ShortMessage.NOTE_ON && sm.getData2() != 0;
+	}
+	
+	// Copy the next buffer from the current quantum, reading
+	// a new quantum from the synthesizer if necessary.  Returns
+	// the number of frames copied: less than a buffer only if the
+	// quantum was only partially read before the read deadline.
+	private int readFromQuantum(float[][] out) throws IOException {
+		if (quantumPos == quantumFrames) {
+			// Allow as much time to read the quantum as all of its buffers
+			long deadline = readDeadlineNanos * (quantumFrames / bufferSize);
+			quantumAvail = readFromSynth(quantumBuf, quantumFrames, deadline);
+			quantumPos = 0;
+		}
+		int n = Math.max(0, Math.min(bufferSize, quantumAvail - quantumPos));
+		for (int ch = 0; ch < out.length; ch++) {
+			System.arraycopy(quantumBuf[ch], quantumPos, out[ch], 0, n);
+		}
+		quantumPos += bufferSize;
+		return n;
+	}
+	
+	// Check whether the synthesizer has become idle: its output has
+	// been silent for the idle hold time, it has no pending timestamped
+	// messages, and it has no active voices
+	private void checkIdle(float[][] out) {
+		float threshold = idleThreshold;
+		for (int ch = 0; ch < out.length; ch++) {
+			float[] buf = out[ch];
+			for (int i = 0; i < bufferSize; i++) {
+				if (buf[i] >= threshold || buf[i] <= -threshold) {
+					quietBuffers = 0;
+					return;
+				}
+			}
+		}
+		if (++quietBuffers < idleHoldBuffers) {
+			return;
+		}
+		
+		// Only become idle once the current quantum has been output,
+		// so that the synthesizer's clock is in step with the AudioContext's
+		if (quantumPos < quantumFrames) {
+			return;
+		}
+		
+		// Checking voices allocates, so only do it once per hold time
+		quietBuffers = 0;
+		if (synth.getMicrosecondPosition() <= latestScheduledUs) {
+			return;
+		}
+		if (sendCount.get() != renderedSendCount) {
+			// A message hasn't been rendered yet
+			return;
+		}
+		for (VoiceStatus voice : synth.getVoiceStatus()) {
+			if (voice.active) {
+				return;
+			}
+		}
+		idle = true;
+		
+		// A message sent by another thread after the check above may
+		// have been counted, and cleared idle, before idle was set:
+		// if so, clear it again.  If it wasn't counted yet, send()
+		// clears idle after counting it.
+		if (sendCount.get() != renderedSendCount) {
+			idle = false;
+		}
+	}
+	
+	// Compute the gain for each channel at the start of the next
+	// frames, and the per-frame change needed to reach the current
+	// gain and pan settings by the end of the frames
+	private void updateGains(int frames) {
+		float g = gain, p = pan;
+		for (int ch = 0; ch < appliedGain.length; ch++) {
+			float target = g;
+			if (appliedGain.length == 2) {
+				target *= (ch == 0) ? Math.min(1.0f, 1.0f - p) : Math.min(1.0f, 1.0f + p);
+			}
+			gainStart[ch] = appliedGain[ch];
+			gainDelta[ch] = (target - appliedGain[ch]) / frames;
+			appliedGain[ch] = target;
+		}
+	}
 }
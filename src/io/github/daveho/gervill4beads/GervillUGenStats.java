@@ -0,0 +1,146 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * Statistics about rendering audio in a {@link GervillUGen}:
+ * how long each call to <code>calculateBuffer</code> spends reading
+ * audio from the Gervill synthesizer.  When instrumentation is enabled
+ * for a GervillUGen, an instance of this class is registered as a JMX MBean,
+ * and JDK Flight Recorder render events are emitted (if available).
+ * 
+ * @author David Hovemeyer
+ */
+public class GervillUGenStats implements GervillUGenStatsMBean {
+	private final double bufferDurationNanos;
+	private final double frameDurationNanos;
+	private final LatencyHistogram renderNanos;
+	private final boolean jfr;
+	private volatile long deadlineMisses;
+	private volatile boolean resetRequested;
+	private Object jfrEvent;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param bufferDurationMs  duration of one audio buffer in milliseconds
+	 * @param bufferSize        number of frames in one audio buffer
+	 */
+	public GervillUGenStats(double bufferDurationMs, int bufferSize) {
+		this.bufferDurationNanos = bufferDurationMs * 1000000.0;
+		this.frameDurationNanos = bufferDurationNanos / bufferSize;
+		this.renderNanos = new LatencyHistogram();
+		this.jfr = Instrumentation.isJfrAvailable();
+	}
+	
+	/**
+	 * Called just before rendering a buffer.
+	 * 
+	 * @return the start time in nanoseconds, to be passed to {@link #renderEnd(long, int)}
+	 */
+	public long renderStart() {
+		if (jfr) {
+			jfrEvent = JfrEvents.beginRender();
+		}
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Called just after rendering a buffer.  The deadline is missed if
+	 * rendering took longer than the duration of the rendered frames
+	 * (e.g., a whole render quantum, when a buffer starts a new quantum).
+	 * 
+	 * @param startNanos  the start time returned by {@link #renderStart()}
+	 * @param frames      the number of frames rendered
+	 */
+	public void renderEnd(long startNanos, int frames) {
+		long elapsed = System.nanoTime() - startNanos;
+		if (resetRequested) {
+			resetRequested = false;
+			deadlineMisses = 0L;
+		}
+		renderNanos.record(elapsed);
+		if (elapsed > frames * frameDurationNanos) {
+			deadlineMisses++;
+		}
+		if (jfrEvent != null) {
+			JfrEvents.endRender(jfrEvent, frames);
+			jfrEvent = null;
+		}
+	}
+	
+	/**
+	 * Get the histogram of render times, in nanoseconds.
+	 * 
+	 * @return the histogram of render times
+	 */
+	public LatencyHistogram getRenderTimeHistogram() {
+		return renderNanos;
+	}
+
+	@Override
+	public long getBufferCount() {
+		return renderNanos.getCount();
+	}
+
+	@Override
+	public double getBufferDurationMicros() {
+		return bufferDurationNanos / 1000.0;
+	}
+
+	@Override
+	public long getDeadlineMissCount() {
+		return deadlineMisses;
+	}
+
+	@Override
+	public double getRenderTimeMeanMicros() {
+		return renderNanos.getMean() / 1000.0;
+	}
+
+	@Override
+	public double getRenderTimeP50Micros() {
+		return renderNanos.getValueAtPercentile(50.0) / 1000.0;
+	}
+
+	@Override
+	public double getRenderTimeP99Micros() {
+		return renderNanos.getValueAtPercentile(99.0) / 1000.0;
+	}
+
+	@Override
+	public double getRenderTimeP999Micros() {
+		return renderNanos.getValueAtPercentile(99.9) / 1000.0;
+	}
+
+	@Override
+	public double getRenderTimeMaxMicros() {
+		return renderNanos.getMax() / 1000.0;
+	}
+
+	@Override
+	public void reset() {
+		// Statistics are reset by the rendering thread (see renderEnd)
+		resetRequested = true;
+		renderNanos.reset();
+	}
+}
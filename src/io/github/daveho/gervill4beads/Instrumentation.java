@@ -0,0 +1,103 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Support for registering instrumentation MBeans and for
+ * emitting JDK Flight Recorder events.
+ * 
+ * @author David Hovemeyer
+ */
+class Instrumentation {
+	/**
+	 * If the <code>gervill4beads.instrumentation</code> system property is true,
+	 * instrumentation is enabled when a {@link GervillUGen} or
+	 * {@link ReceivedMidiMessageSource} is created.
+	 */
+	static final boolean ENABLED_BY_DEFAULT = Boolean.getBoolean("gervill4beads.instrumentation");
+	
+	/** JMX domain for instrumentation MBeans. */
+	static final String DOMAIN = "io.github.daveho.gervill4beads";
+	
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+	
+	private static final boolean JFR_AVAILABLE = checkJfrAvailable();
+	
+	private static boolean checkJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Check whether JDK Flight Recorder events can be emitted.
+	 * If this returns false, {@link JfrEvents} must not be used.
+	 * 
+	 * @return true if JDK Flight Recorder is available
+	 */
+	static boolean isJfrAvailable() {
+		return JFR_AVAILABLE;
+	}
+	
+	/**
+	 * Register an MBean with the platform MBean server.
+	 * 
+	 * @param mbean  the MBean
+	 * @param type   the type, e.g., "GervillUGen"
+	 * @return the ObjectName of the registered MBean
+	 */
+	static ObjectName register(Object mbean, String type) {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + nextId.getAndIncrement());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			return name;
+		} catch (JMException e) {
+			throw new RuntimeException("Could not register instrumentation MBean", e);
+		}
+	}
+	
+	/**
+	 * Unregister an MBean from the platform MBean server.
+	 * 
+	 * @param name the ObjectName of the MBean
+	 */
+	static void unregister(ObjectName name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			throw new RuntimeException("Could not unregister instrumentation MBean", e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events.  This class must only be used if
+ * {@link Instrumentation#isJfrAvailable()} returns true, since it
+ * depends on the <code>jdk.jfr</code> API.  Events are only created
+ * while a recording has them enabled, so they don't allocate
+ * memory otherwise.
+ * 
+ * @author David Hovemeyer
+ */
+class JfrEvents {
+	@Name("io.github.daveho.gervill4beads.Render")
+	@Label("Gervill Render")
+	@Category("Gervill4Beads")
+	@Description("Reading one buffer of audio from the Gervill synthesizer")
+	static class RenderEvent extends Event {
+		@Label("Frames")
+		int frames;
+	}
+	
+	@Name("io.github.daveho.gervill4beads.Dispatch")
+	@Label("Midi Dispatch")
+	@Category("Gervill4Beads")
+	@Description("Dispatching one audio frame's midi messages to listeners")
+	static class DispatchEvent extends Event {
+		@Label("Messages")
+		int messages;
+		
+		@Label("Queue Depth")
+		@Description("Number of messages waiting for delivery at the start of the frame")
+		int queueDepth;
+		
+		@Label("Max Lateness")
+		@Timespan(Timespan.MICROSECONDS)
+		long maxLatenessMicros;
+	}
+	
+	private static final EventType RENDER_TYPE = EventType.getEventType(RenderEvent.class);
+	private static final EventType DISPATCH_TYPE = EventType.getEventType(DispatchEvent.class);
+	
+	/**
+	 * Begin a render event.
+	 * 
+	 * @return the event, or null if render events are not being recorded
+	 */
+	static Object beginRender() {
+		if (!RENDER_TYPE.isEnabled()) {
+			return null;
+		}
+		RenderEvent event = new RenderEvent();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * End and commit a render event.
+	 * 
+	 * @param event   the event returned by {@link #beginRender()}
+	 * @param frames  number of frames rendered
+	 */
+	static void endRender(Object event, int frames) {
+		RenderEvent renderEvent = (RenderEvent) event;
+		renderEvent.end();
+		if (renderEvent.shouldCommit()) {
+			renderEvent.frames = frames;
+			renderEvent.commit();
+		}
+	}
+	
+	/**
+	 * Begin a dispatch event.
+	 * 
+	 * @return the event, or null if dispatch events are not being recorded
+	 */
+	static Object beginDispatch() {
+		if (!DISPATCH_TYPE.isEnabled()) {
+			return null;
+		}
+		DispatchEvent event = new DispatchEvent();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * End and commit a dispatch event.
+	 * 
+	 * @param event              the event returned by {@link #beginDispatch()}
+	 * @param messages           number of messages dispatched
+	 * @param queueDepth         number of messages waiting for delivery
+	 * @param maxLatenessMicros  lateness of the latest message, in microseconds
+	 */
+	static void endDispatch(Object event, int messages, int queueDepth, long maxLatenessMicros) {
+		DispatchEvent dispatchEvent = (DispatchEvent) event;
+		dispatchEvent.end();
+		if (dispatchEvent.shouldCommit()) {
+			dispatchEvent.messages = messages;
+			dispatchEvent.queueDepth = queueDepth;
+			dispatchEvent.maxLatenessMicros = maxLatenessMicros;
+			dispatchEvent.commit();
+		}
+	}
+}
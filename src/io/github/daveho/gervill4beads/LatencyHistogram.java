@@ -0,0 +1,170 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative <code>long</code> values (e.g., durations
+ * in nanoseconds), using logarithmically-sized buckets in the style of
+ * HdrHistogram: each power-of-2 range of values is divided into
+ * 16 equal-sized buckets, so recorded values are accurate to within
+ * about 6%.  All storage is allocated when the histogram is created,
+ * so recording a value never allocates memory.
+ * 
+ * <p>Values must be recorded by only one thread at a time, but the
+ * statistics may be read, and the histogram reset, from any thread.
+ * 
+ * @author David Hovemeyer
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+	
+	private final AtomicLongArray counts;
+	private volatile long count;
+	private volatile long sum;
+	private volatile long max;
+	private volatile boolean resetRequested;
+	
+	/**
+	 * Constructor.
+	 */
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(NUM_BUCKETS);
+	}
+	
+	/**
+	 * Record a value.  Negative values are recorded as 0.
+	 * 
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		if (resetRequested) {
+			resetRequested = false;
+			clear();
+		}
+		if (value < 0L) {
+			value = 0L;
+		}
+		int idx = bucketIndex(value);
+		// Only one thread records values, so an ordered store
+		// is sufficient (and cheaper than an atomic increment)
+		counts.lazySet(idx, counts.get(idx) + 1L);
+		count++;
+		sum += value;
+		if (value > max) {
+			max = value;
+		}
+	}
+	
+	/**
+	 * Get the number of recorded values.
+	 * 
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Get the largest recorded value.
+	 * 
+	 * @return the largest recorded value, or 0 if no values have been recorded
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * Get the mean of the recorded values.
+	 * 
+	 * @return the mean, or 0 if no values have been recorded
+	 */
+	public double getMean() {
+		long n = count;
+		return n == 0L ? 0.0 : (double) sum / n;
+	}
+	
+	/**
+	 * Get the (approximate) value at given percentile.
+	 * 
+	 * @param percentile the percentile (0-100)
+	 * @return the value at the percentile, or 0 if no values have been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0L;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0L) {
+			return 0L;
+		}
+		long target = Math.max(1L, (long) Math.ceil(total * (percentile / 100.0)));
+		long cumulative = 0L;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			cumulative += counts.get(i);
+			if (cumulative >= target) {
+				return Math.min(bucketHighestValue(i), max);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Discard all recorded values.  May be called from any thread:
+	 * so that the statistics stay consistent, the values are discarded
+	 * by the recording thread, just before it records the next value.
+	 */
+	public void reset() {
+		resetRequested = true;
+	}
+	
+	private void clear() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts.set(i, 0L);
+		}
+		count = 0L;
+		sum = 0L;
+		max = 0L;
+	}
+	
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - (SUB_BUCKET_BITS - 1);
+		return (shift + 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+	}
+	
+	private static long bucketHighestValue(int idx) {
+		if (idx < SUB_BUCKET_COUNT) {
+			return idx;
+		}
+		int shift = idx / SUB_BUCKET_HALF - 1;
+		long lowest = ((long) (idx % SUB_BUCKET_HALF + SUB_BUCKET_HALF)) << shift;
+		return lowest + (1L << shift) - 1L;
+	}
+}
@@ -0,0 +1,342 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Patch;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Loads a soundbank's instruments into a synthesizer only when they are
+ * selected, rather than loading all of them up front.  The loader watches
+ * the bank select and program change messages sent to a {@link GervillUGen},
+ * and loads each newly selected instrument on a background thread.  The
+ * instruments for the initial program of every channel, and any instruments
+ * passed to {@link #warm(int, int, boolean)}, are loaded as soon as possible.
+ * Startup time and memory use are then proportional to the number of
+ * instruments actually used.
+ * 
+ * <p>While a channel's instrument is loading, notes on that channel are
+ * handled according to the {@link Fallback}.
+ * 
+ * <p>Instruments are selected the same way as Gervill selects them: channel 10
+ * uses percussion instruments, and if the selected bank doesn't contain the
+ * program, the program in bank 0 (or else program 0 in bank 0) is used.
+ * Telling percussion instruments apart requires reflective access to Gervill's
+ * internals; without it, all instruments are treated as melodic instruments.
+ * 
+ * @author David Hovemeyer
+ */
+public class LazyInstrumentLoader {
+	/**
+	 * What to do with notes played on a channel whose instrument is still loading.
+	 */
+	public enum Fallback {
+		/**
+		 * Play them using whichever instrument Gervill falls back to
+		 * (e.g., the corresponding instrument of the default soundbank).
+		 */
+		GERVILL_DEFAULT,
+		
+		/** Drop note-on messages until the instrument is loaded. */
+		DROP_NOTES,
+	}
+	
+	private static final int NUM_CHANNELS = 16;
+	private static final int PERCUSSION_CHANNEL = 9;
+	
+	// Load states of instruments
+	private static final int NOT_REQUESTED = 0;
+	private static final int LOADING = 1;
+	private static final int LOADED = 2;
+	private static final int FAILED = 3;
+	
+	private final Synthesizer synth;
+	private final ExecutorService executor;
+	private volatile Fallback fallback;
+	
+	// The soundbank's instruments, sorted by patch key (see patchKey),
+	// so that instruments can be found without allocating any objects,
+	// and the load state of each instrument
+	private final int[] keys;
+	private final Instrument[] instruments;
+	private final AtomicIntegerArray state;
+	private final AtomicInteger pending;
+	private final AtomicInteger loaded;
+	private volatile long droppedNotes;
+	
+	// Per-channel state, updated by the thread sending midi messages
+	private final int[] bankMsb;
+	private final int[] bankLsb;
+	private final int[] selected;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param synth      the synthesizer to load instruments into
+	 * @param soundbank  the soundbank whose instruments should be loaded
+	 */
+	LazyInstrumentLoader(Synthesizer synth, Soundbank soundbank) {
+		this.synth = synth;
+		Map<Integer, Instrument> index = createIndex(soundbank);
+		this.keys = new int[index.size()];
+		this.instruments = new Instrument[index.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Instrument> entry : index.entrySet()) {
+			keys[i] = entry.getKey();
+			instruments[i] = entry.getValue();
+			i++;
+		}
+		this.state = new AtomicIntegerArray(keys.length);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LazyInstrumentLoader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.fallback = Fallback.GERVILL_DEFAULT;
+		this.pending = new AtomicInteger();
+		this.loaded = new AtomicInteger();
+		this.bankMsb = new int[NUM_CHANNELS];
+		this.bankLsb = new int[NUM_CHANNELS];
+		this.selected = new int[NUM_CHANNELS];
+		
+		// Channels initially use program 0 of bank 0
+		for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+			selected[ch] = select(ch, 0, 0);
+		}
+	}
+	
+	/**
+	 * Set what to do with notes played on a channel whose
+	 * instrument is still loading.
+	 * 
+	 * @param fallback the {@link Fallback}
+	 */
+	public void setFallback(Fallback fallback) {
+		this.fallback = fallback;
+	}
+	
+	/**
+	 * Load an instrument before it is selected.
+	 * 
+	 * @param bank        the bank (MSB*128 + LSB)
+	 * @param program     the program
+	 * @param percussion  true for a percussion instrument, false for a melodic instrument
+	 * @return true if the soundbank contains the instrument
+	 */
+	public boolean warm(int bank, int program, boolean percussion) {
+		int i = find(bank, program, percussion);
+		if (i < 0) {
+			return false;
+		}
+		request(i);
+		return true;
+	}
+	
+	/**
+	 * Check whether an instrument has been loaded.
+	 * 
+	 * @param bank        the bank (MSB*128 + LSB)
+	 * @param program     the program
+	 * @param percussion  true for a percussion instrument, false for a melodic instrument
+	 * @return true if the instrument has been loaded
+	 */
+	public boolean isLoaded(int bank, int program, boolean percussion) {
+		int i = find(bank, program, percussion);
+		return i >= 0 && state.get(i) == LOADED;
+	}
+	
+	/**
+	 * Get the number of instruments which have been requested
+	 * but have not finished loading.
+	 * 
+	 * @return number of instruments being loaded
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+	
+	/**
+	 * Get the number of instruments which have been loaded successfully.
+	 * 
+	 * @return number of loaded instruments
+	 */
+	public int getLoadedCount() {
+		return loaded.get();
+	}
+	
+	/**
+	 * Get the number of note-on messages dropped because the channel's
+	 * instrument was still loading (with the {@link Fallback#DROP_NOTES} fallback).
+	 * 
+	 * @return number of dropped note-ons
+	 */
+	public long getDroppedNoteCount() {
+		return droppedNotes;
+	}
+	
+	/**
+	 * Observe a midi message about to be sent to the synthesizer, starting
+	 * to load the instrument it selects (if any).  Should only be called
+	 * by one thread at a time.
+	 * 
+	 * @param msg the MidiMessage
+	 * @return true if the message should be sent, false if it should be
+	 *         dropped because the channel's instrument is still loading
+	 */
+	boolean observe(MidiMessage msg) {
+		if (!(msg instanceof ShortMessage)) {
+			return true;
+		}
+		ShortMessage sm = (ShortMessage) msg;
+		int ch = sm.getChannel();
+		switch (sm.getCommand()) {
+		case ShortMessage.CONTROL_CHANGE:
+			if (sm.getData1() == 0) {
+				bankMsb[ch] = sm.getData2();
+			} else if (sm.getData1() == 32) {
+				bankLsb[ch] = sm.getData2();
+			}
+			return true;
+		case ShortMessage.PROGRAM_CHANGE:
+			selected[ch] = select(ch, bankMsb[ch] * 128 + bankLsb[ch], sm.getData1());
+			return true;
+		case ShortMessage.NOTE_ON:
+			if (sm.getData2() != 0 && fallback == Fallback.DROP_NOTES) {
+				int i = selected[ch];
+				if (i >= 0 && state.get(i) == LOADING) {
+					droppedNotes++;
+					return false;
+				}
+			}
+			return true;
+		default:
+			return true;
+		}
+	}
+	
+	/**
+	 * Stop the background loading thread.
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	// Find the soundbank instrument Gervill would use for a channel's
+	// bank and program, and request it.  Returns the index of the instrument,
+	// or -1 if the soundbank doesn't contain a suitable instrument.
+	private int select(int ch, int bank, int program) {
+		boolean percussion = (ch == PERCUSSION_CHANNEL);
+		int i = find(bank, program, percussion);
+		if (i < 0) {
+			i = find(0, program, percussion);
+			if (i < 0) {
+				i = find(0, 0, percussion);
+				if (i < 0) {
+					return -1;
+				}
+			}
+		}
+		request(i);
+		return i;
+	}
+	
+	// Index of an instrument, or a negative value if the
+	// soundbank doesn't contain it
+	private int find(int bank, int program, boolean percussion) {
+		return Arrays.binarySearch(keys, patchKey(bank, program, percussion));
+	}
+	
+	private void request(final int i) {
+		if (!state.compareAndSet(i, NOT_REQUESTED, LOADING)) {
+			return;
+		}
+		pending.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Even if loading fails, the instrument is no longer pending
+				boolean ok = false;
+				try {
+					ok = synth.loadInstrument(instruments[i]);
+				} finally {
+					if (ok) {
+						loaded.incrementAndGet();
+					}
+					state.set(i, ok ? LOADED : FAILED);
+					pending.decrementAndGet();
+				}
+			}
+		});
+	}
+	
+	// Gervill identifies instruments by program, bank (14 bits), and whether
+	// they are percussion instruments: pack them into an int
+	private static int patchKey(int bank, int program, boolean percussion) {
+		return (percussion ? 1 << 21 : 0) | (bank & 0x3fff) << 7 | (program & 0x7f);
+	}
+	
+	private static Map<Integer, Instrument> createIndex(Soundbank soundbank) {
+		Method isPercussion = null;
+		try {
+			isPercussion = Class.forName("com.sun.media.sound.ModelPatch").getMethod("isPercussion");
+			isPercussion.setAccessible(true);
+		} catch (Exception e) {
+			// Includes InaccessibleObjectException on Java 9 and later
+			isPercussion = null;
+		}
+		
+		Map<Integer, Instrument> index = new TreeMap<Integer, Instrument>();
+		for (Instrument ins : soundbank.getInstruments()) {
+			Patch patch = ins.getPatch();
+			boolean percussion = false;
+			if (isPercussion != null && isPercussion.getDeclaringClass().isInstance(patch)) {
+				try {
+					percussion = (Boolean) isPercussion.invoke(patch);
+				} catch (Exception e) {
+					throw new RuntimeException("Could not check instrument patch", e);
+				}
+			}
+			Integer key = patchKey(patch.getBank(), patch.getProgram(), percussion);
+			if (!index.containsKey(key)) {
+				index.put(key, ins);
+			}
+		}
+		return index;
+	}
+}
@@ -0,0 +1,560 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.SoundbankResource;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * A soundbank whose sample data is memory-mapped from the soundbank file,
+ * rather than loaded onto the Java heap.  Only the first
+ * {@link #DEFAULT_PRELOAD_FRAMES} frames (the head) of each sample are
+ * copied onto the heap, so that starting a note doesn't have to wait
+ * for the file to be read; the rest of each sample is read from the
+ * mapping as it is played, and is paged in and out by the operating
+ * system.  The heap used by the soundbank therefore depends on the
+ * number of samples, but not on their length, so soundbanks much
+ * larger than the heap can be used.
+ * 
+ * <p>Gervill plays a sample by reading it from an audio stream opened by
+ * the sample's wavetable oscillator.  The soundbank is loaded by Gervill
+ * without loading its sample data, then each wavetable is replaced
+ * by one whose stream reads from the mapping, and the instruments are
+ * rebuilt from the replaced wavetables.  This requires reflective
+ * access to Gervill's internals: see {@link #isSupported()}.
+ * Samples with 24 bit data, and samples which aren't stored in
+ * the soundbank file, are played by Gervill as usual.
+ * 
+ * @author David Hovemeyer
+ */
+public class MappedSoundbank implements Soundbank {
+	/**
+	 * Default number of frames at the start of each sample which are
+	 * copied onto the heap when a MappedSoundbank is loaded.
+	 */
+	public static int DEFAULT_PRELOAD_FRAMES = 4096;
+	
+	// Maximum size of each mapped region of the file
+	private static final long MAX_SEGMENT_SIZE = 1L << 30;
+	
+	/**
+	 * Check whether MappedSoundbanks can be loaded: Gervill's internals
+	 * must be accessible using reflection (on Java 9 and later, the
+	 * <code>com.sun.media.sound</code> package of the <code>java.desktop</code> module
+	 * must be opened).
+	 * 
+	 * @return true if MappedSoundbanks can be loaded
+	 */
+	public static boolean isSupported() {
+		return Gervill.get() != null;
+	}
+	
+	/**
+	 * Load a soundbank file, memory-mapping its sample data.
+	 * 
+	 * @param file the soundbank file (e.g., a .sf2 file)
+	 * @return the MappedSoundbank
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public static MappedSoundbank load(File file) throws IOException, InvalidMidiDataException {
+		Gervill gervill = Gervill.get();
+		if (gervill == null) {
+			throw new IOException("Memory-mapped soundbanks require reflective access to Gervill's internals "
+					+ "(--add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED)");
+		}
+		// Soundbanks loaded from a File keep their sample data in the
+		// file until it is needed
+		Soundbank source = MidiSystem.getSoundbank(file);
+		try {
+			return new Builder(gervill, source, file.getCanonicalFile()).build();
+		} catch (IllegalAccessException e) {
+			throw new IOException("Could not access Gervill soundbank", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Could not access Gervill soundbank", e.getCause());
+		} catch (InstantiationException e) {
+			throw new IOException("Could not create Gervill instrument", e);
+		}
+	}
+	
+	private final Soundbank source;
+	private final Instrument[] sourceInstruments;
+	private final Instrument[] instruments;
+	private final long mappedBytes;
+	private final long preloadedBytes;
+	
+	private MappedSoundbank(Soundbank source, Instrument[] sourceInstruments, Instrument[] instruments,
+			long mappedBytes, long preloadedBytes) {
+		this.source = source;
+		this.sourceInstruments = sourceInstruments;
+		this.instruments = instruments;
+		this.mappedBytes = mappedBytes;
+		this.preloadedBytes = preloadedBytes;
+	}
+	
+	/**
+	 * Get the number of bytes of sample data which are memory-mapped.
+	 * 
+	 * @return number of mapped bytes
+	 */
+	public long getMappedBytes() {
+		return mappedBytes;
+	}
+	
+	/**
+	 * Get the number of bytes of sample data which were copied
+	 * onto the heap (the heads of the samples).
+	 * 
+	 * @return number of preloaded bytes
+	 */
+	public long getPreloadedBytes() {
+		return preloadedBytes;
+	}
+
+	@Override
+	public String getName() {
+		return source.getName();
+	}
+
+	@Override
+	public String getVersion() {
+		return source.getVersion();
+	}
+
+	@Override
+	public String getVendor() {
+		return source.getVendor();
+	}
+
+	@Override
+	public String getDescription() {
+		return source.getDescription();
+	}
+
+	@Override
+	public SoundbankResource[] getResources() {
+		return source.getResources();
+	}
+
+	@Override
+	public Instrument[] getInstruments() {
+		return instruments.clone();
+	}
+
+	@Override
+	public Instrument getInstrument(Patch patch) {
+		// Let the source soundbank decide which instrument matches
+		Instrument match = source.getInstrument(patch);
+		for (int i = 0; i < sourceInstruments.length; i++) {
+			if (sourceInstruments[i] == match) {
+				return instruments[i];
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Reflective access to the Gervill classes and methods needed
+	 * to rebuild a soundbank's instruments.
+	 */
+	private static class Gervill {
+		private static Gervill instance;
+		private static boolean initialized;
+		
+		final Class<?> modelInstrument;
+		final Class<?> modelWavetable;
+		final Class<?> byteBufferWavetable;
+		final Constructor<?> newSimpleInstrument;
+		final Method getPerformers;
+		final Method getOscillators;
+		final Method getBuffer;
+		final Method get8BitExtensionBuffer;
+		final Method getFormat;
+		final Method getRoot;
+		final Method getFile;
+		final Method getFilePointer;
+		final Method arrayOffset;
+		final Method capacity;
+		final Method array;
+		final Method setName;
+		final Method setPatch;
+		final Method addPerformers;
+		final Method getFloatInputStream;
+		
+		static synchronized Gervill get() {
+			if (!initialized) {
+				try {
+					instance = new Gervill();
+				} catch (Exception e) {
+					// Includes InaccessibleObjectException on Java 9 and later
+					instance = null;
+				}
+				initialized = true;
+			}
+			return instance;
+		}
+		
+		private Gervill() throws Exception {
+			modelInstrument = Class.forName("com.sun.media.sound.ModelInstrument");
+			modelWavetable = Class.forName("com.sun.media.sound.ModelWavetable");
+			byteBufferWavetable = Class.forName("com.sun.media.sound.ModelByteBufferWavetable");
+			Class<?> simpleInstrument = Class.forName("com.sun.media.sound.SimpleInstrument");
+			Class<?> performer = Class.forName("com.sun.media.sound.ModelPerformer");
+			Class<?> byteBuffer = Class.forName("com.sun.media.sound.ModelByteBuffer");
+			Class<?> floatInputStream = Class.forName("com.sun.media.sound.AudioFloatInputStream");
+			
+			getPerformers = accessible(modelInstrument.getMethod("getPerformers"));
+			getOscillators = accessible(performer.getMethod("getOscillators"));
+			getBuffer = accessible(byteBufferWavetable.getMethod("getBuffer"));
+			get8BitExtensionBuffer = accessible(byteBufferWavetable.getMethod("get8BitExtensionBuffer"));
+			getFormat = accessible(byteBufferWavetable.getMethod("getFormat"));
+			getRoot = accessible(byteBuffer.getMethod("getRoot"));
+			getFile = accessible(byteBuffer.getMethod("getFile"));
+			getFilePointer = accessible(byteBuffer.getMethod("getFilePointer"));
+			arrayOffset = accessible(byteBuffer.getMethod("arrayOffset"));
+			capacity = accessible(byteBuffer.getMethod("capacity"));
+			array = accessible(byteBuffer.getMethod("array"));
+			newSimpleInstrument = simpleInstrument.getConstructor();
+			newSimpleInstrument.setAccessible(true);
+			setName = accessible(simpleInstrument.getMethod("setName", String.class));
+			setPatch = accessible(simpleInstrument.getMethod("setPatch", Patch.class));
+			Class<?> performerArray = java.lang.reflect.Array.newInstance(performer, 0).getClass();
+			addPerformers = accessible(simpleInstrument.getMethod("add", performerArray));
+			getFloatInputStream = accessible(floatInputStream.getMethod("getInputStream", AudioInputStream.class));
+		}
+		
+		private static Method accessible(Method m) {
+			m.setAccessible(true);
+			return m;
+		}
+	}
+	
+	/**
+	 * Reference to a wavetable oscillator whose sample data is in the file.
+	 */
+	private static class WavetableRef {
+		final List<Object> oscillators;
+		final int index;
+		final Object wavetable;
+		final AudioFormat format;
+		final long offset;
+		final long length;
+		
+		WavetableRef(List<Object> oscillators, int index, Object wavetable, AudioFormat format,
+				long offset, long length) {
+			this.oscillators = oscillators;
+			this.index = index;
+			this.wavetable = wavetable;
+			this.format = format;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * Builds a MappedSoundbank from a file-backed soundbank.
+	 */
+	private static class Builder {
+		private final Gervill gervill;
+		private final Soundbank source;
+		private final File file;
+		private final List<WavetableRef> refs;
+		
+		Builder(Gervill gervill, Soundbank source, File file) {
+			this.gervill = gervill;
+			this.source = source;
+			this.file = file;
+			this.refs = new ArrayList<WavetableRef>();
+		}
+		
+		MappedSoundbank build() throws IOException, IllegalAccessException, InvocationTargetException,
+				InstantiationException {
+			// Get each instrument's performers, and find their wavetables
+			// whose sample data can be mapped
+			Instrument[] sourceInstruments = source.getInstruments();
+			Object[] performers = new Object[sourceInstruments.length];
+			for (int i = 0; i < sourceInstruments.length; i++) {
+				if (!gervill.modelInstrument.isInstance(sourceInstruments[i])) {
+					throw new IOException("Unsupported instrument: " + sourceInstruments[i]);
+				}
+				performers[i] = gervill.getPerformers.invoke(sourceInstruments[i]);
+				findWavetables((Object[]) performers[i]);
+			}
+			
+			// Map the file, and replace the wavetables
+			Map<Long, MappedSample> samples = mapSamples();
+			for (WavetableRef ref : refs) {
+				MappedSample sample = samples.get(ref.offset);
+				InvocationHandler handler = new MappedWavetableHandler(ref.wavetable, ref.format, sample,
+						gervill.getFloatInputStream);
+				Object wavetable = Proxy.newProxyInstance(gervill.modelWavetable.getClassLoader(),
+						new Class<?>[]{ gervill.modelWavetable }, handler);
+				ref.oscillators.set(ref.index, wavetable);
+			}
+			long mappedBytes = 0L, preloadedBytes = 0L;
+			for (MappedSample sample : samples.values()) {
+				mappedBytes += sample.length;
+				preloadedBytes += sample.head.length;
+			}
+			
+			// Rebuild the instruments from their modified performers
+			Instrument[] instruments = new Instrument[sourceInstruments.length];
+			for (int i = 0; i < sourceInstruments.length; i++) {
+				Object ins = gervill.newSimpleInstrument.newInstance();
+				gervill.setName.invoke(ins, sourceInstruments[i].getName());
+				gervill.setPatch.invoke(ins, sourceInstruments[i].getPatch());
+				gervill.addPerformers.invoke(ins, performers[i]);
+				instruments[i] = (Instrument) ins;
+			}
+			
+			return new MappedSoundbank(source, sourceInstruments, instruments, mappedBytes, preloadedBytes);
+		}
+		
+		@SuppressWarnings("unchecked")
+		private void findWavetables(Object[] performers) throws IOException, IllegalAccessException,
+				InvocationTargetException {
+			for (Object performer : performers) {
+				List<Object> oscillators = (List<Object>) gervill.getOscillators.invoke(performer);
+				for (int i = 0; i < oscillators.size(); i++) {
+					Object osc = oscillators.get(i);
+					if (!gervill.byteBufferWavetable.isInstance(osc)
+							|| gervill.get8BitExtensionBuffer.invoke(osc) != null) {
+						continue;
+					}
+					AudioFormat format = (AudioFormat) gervill.getFormat.invoke(osc);
+					Object buffer = gervill.getBuffer.invoke(osc);
+					if (format == null || buffer == null || gervill.array.invoke(buffer) != null) {
+						// Sample data already on the heap
+						continue;
+					}
+					Object root = gervill.getRoot.invoke(buffer);
+					File rootFile = (File) gervill.getFile.invoke(root);
+					if (rootFile == null || !rootFile.getCanonicalFile().equals(file)) {
+						continue;
+					}
+					long offset = (Long) gervill.getFilePointer.invoke(root) + (Long) gervill.arrayOffset.invoke(buffer);
+					long length = (Long) gervill.capacity.invoke(buffer);
+					refs.add(new WavetableRef(oscillators, i, osc, format, offset, length));
+				}
+			}
+		}
+		
+		// Map the regions of the file containing sample data, using as
+		// few mappings as possible, and create a MappedSample for each
+		// distinct sample (samples are often shared by several wavetables)
+		private Map<Long, MappedSample> mapSamples() throws IOException {
+			List<WavetableRef> sorted = new ArrayList<WavetableRef>(refs);
+			Collections.sort(sorted, new Comparator<WavetableRef>() {
+				@Override
+				public int compare(WavetableRef o1, WavetableRef o2) {
+					return o1.offset < o2.offset ? -1 : (o1.offset > o2.offset ? 1 : 0);
+				}
+			});
+			
+			Map<Long, MappedSample> samples = new HashMap<Long, MappedSample>();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				int i = 0;
+				while (i < sorted.size()) {
+					// Find the samples which fit in one segment
+					long start = sorted.get(i).offset;
+					long end = start + sorted.get(i).length;
+					int j = i + 1;
+					while (j < sorted.size() && Math.max(end, sorted.get(j).offset + sorted.get(j).length) - start <= MAX_SEGMENT_SIZE) {
+						end = Math.max(end, sorted.get(j).offset + sorted.get(j).length);
+						j++;
+					}
+					
+					// The mapping stays valid after the channel is closed
+					MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+					for (; i < j; i++) {
+						WavetableRef ref = sorted.get(i);
+						if (!samples.containsKey(ref.offset)) {
+							int headLength = (int) Math.min(ref.length, (long) DEFAULT_PRELOAD_FRAMES * ref.format.getFrameSize());
+							samples.put(ref.offset, new MappedSample(segment, (int) (ref.offset - start), ref.length, headLength));
+						}
+					}
+				}
+			} finally {
+				raf.close();
+			}
+			return samples;
+		}
+	}
+	
+	/**
+	 * Sample data in a mapped region of the file, with a copy
+	 * of the head of the sample on the heap.
+	 */
+	private static class MappedSample {
+		final ByteBuffer segment;
+		final int offset;
+		final long length;
+		final byte[] head;
+		
+		MappedSample(ByteBuffer segment, int offset, long length, int headLength) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.head = new byte[headLength];
+			ByteBuffer dup = segment.duplicate();
+			dup.position(offset);
+			dup.get(head);
+		}
+		
+		InputStream openStream() {
+			return new MappedSampleInputStream(this);
+		}
+	}
+	
+	/**
+	 * InputStream reading a MappedSample: from the head if possible,
+	 * otherwise from the mapping.  Supports mark/reset, which Gervill
+	 * uses to play loops.
+	 */
+	private static class MappedSampleInputStream extends InputStream {
+		private final MappedSample sample;
+		private final ByteBuffer data;
+		private long pos;
+		private long markPos;
+		
+		MappedSampleInputStream(MappedSample sample) {
+			this.sample = sample;
+			this.data = sample.segment.duplicate();
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			long remaining = sample.length - pos;
+			if (remaining <= 0L) {
+				return -1;
+			}
+			// Always read as much as requested (if available):
+			// Gervill treats a short read as the end of the sample
+			int n = (int) Math.min(len, remaining);
+			byte[] head = sample.head;
+			int fromHead = 0;
+			if (pos < head.length) {
+				fromHead = Math.min(n, head.length - (int) pos);
+				System.arraycopy(head, (int) pos, b, off, fromHead);
+			}
+			if (fromHead < n) {
+				data.position(sample.offset + (int) (pos + fromHead));
+				data.get(b, off + fromHead, n - fromHead);
+			}
+			pos += n;
+			return n;
+		}
+		
+		@Override
+		public int read() {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+		}
+		
+		@Override
+		public long skip(long n) {
+			long skipped = Math.max(0L, Math.min(n, sample.length - pos));
+			pos += skipped;
+			return skipped;
+		}
+		
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, sample.length - pos);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+		
+		@Override
+		public void mark(int readlimit) {
+			markPos = pos;
+		}
+		
+		@Override
+		public void reset() {
+			pos = markPos;
+		}
+	}
+	
+	/**
+	 * Implements Gervill's ModelWavetable interface by delegating to
+	 * the original wavetable, except that audio streams are opened
+	 * from the mapped sample data.
+	 */
+	private static class MappedWavetableHandler implements InvocationHandler {
+		private final Object wavetable;
+		private final AudioFormat format;
+		private final MappedSample sample;
+		private final Method getFloatInputStream;
+		
+		MappedWavetableHandler(Object wavetable, AudioFormat format, MappedSample sample, Method getFloatInputStream) {
+			this.wavetable = wavetable;
+			this.format = format;
+			this.sample = sample;
+			this.getFloatInputStream = getFloatInputStream;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			try {
+				if (method.getName().equals("openStream") && method.getParameterTypes().length == 0) {
+					AudioInputStream ais = new AudioInputStream(sample.openStream(), format,
+							sample.length / format.getFrameSize());
+					return getFloatInputStream.invoke(null, ais);
+				}
+				return method.invoke(wavetable, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -30,6 +30,15 @@ import net.beadsproject.beads.core.Bead;
 /**
  * Helper methods for working with midi messages.
  * 
+ * <p>Short messages can also be represented as a packed <code>int</code>,
+ * avoiding the need for a MidiMessage object per event.
+ * The status byte is stored in bits 0-7, the first data byte in
+ * bits 8-15, and the second data byte in bits 16-23.  Use
+ * {@link #pack(int, int, int)} and {@link #pack(MidiMessage)} to create
+ * packed messages, the <code>getPacked</code> methods to access their
+ * fields, and {@link #toShortMessage(int)} to convert them back
+ * to ShortMessages when a MidiMessage object is really needed.
+ * 
  * @author David Hovemeyer
  */
 public class Midi {
@@ -40,6 +49,10 @@ public class Midi {
 	 * @return the note
 	 */
 	public static int getNote(MidiMessage msg) {
+		if (msg instanceof ShortMessage) {
+			// Avoid copying the message data
+			return ((ShortMessage) msg).getData1();
+		}
 		return msg.getMessage()[1];
 	}
 	
@@ -50,8 +63,177 @@ public class Midi {
 	 * @return the velocity
 	 */
 	public static int getVelocity(MidiMessage msg) {
+		if (msg instanceof ShortMessage) {
+			// Avoid copying the message data
+			return ((ShortMessage) msg).getData2();
+		}
 		return msg.getMessage()[2];
 	}
+	
+	/**
+	 * Create a packed short message.
+	 * 
+	 * @param status  status byte (command and channel)
+	 * @param data1   first data byte (e.g., the note for NOTE_ON messages)
+	 * @param data2   second data byte (e.g., the velocity for NOTE_ON messages)
+	 * @return the packed short message
+	 */
+	public static int pack(int status, int data1, int data2) {
+		return (status & 0xff) | ((data1 & 0xff) << 8) | ((data2 & 0xff) << 16);
+	}
+	
+	/**
+	 * Create a packed short message from a command, channel, and data bytes.
+	 * 
+	 * @param command  the command (e.g., <code>ShortMessage.NOTE_ON</code>)
+	 * @param channel  the channel (0-15)
+	 * @param data1    first data byte
+	 * @param data2    second data byte
+	 * @return the packed short message
+	 */
+	public static int pack(int command, int channel, int data1, int data2) {
+		return pack((command & 0xf0) | (channel & 0x0f), data1, data2);
+	}
+	
+	/**
+	 * Create a packed short message from a MidiMessage.
+	 * Messages which are not ShortMessages (e.g., sysex messages)
+	 * can't be packed, and result in 0 (which is never a valid status byte).
+	 * 
+	 * @param msg a MidiMessage
+	 * @return the packed short message, or 0 if the message is not a ShortMessage
+	 */
+	public static int pack(MidiMessage msg) {
+		if (!(msg instanceof ShortMessage)) {
+			return 0;
+		}
+		ShortMessage sm = (ShortMessage) msg;
+		return pack(sm.getStatus(), sm.getData1(), sm.getData2());
+	}
+	
+	/**
+	 * Get the status byte from a packed short message.
+	 * 
+	 * @param packed a packed short message
+	 * @return the status byte
+	 */
+	public static int getPackedStatus(int packed) {
+		return packed & 0xff;
+	}
+	
+	/**
+	 * Get the command from a packed short message.
+	 * For channel messages, this is the status byte with the channel
+	 * removed; for system messages, this is the status byte.
+	 * 
+	 * @param packed a packed short message
+	 * @return the command
+	 */
+	public static int getPackedCommand(int packed) {
+		int status = packed & 0xff;
+		return status >= 0xf0 ? status : (status & 0xf0);
+	}
+	
+	/**
+	 * Get the channel (0-15) from a packed short message.
+	 * 
+	 * @param packed a packed short message
+	 * @return the channel
+	 */
+	public static int getPackedChannel(int packed) {
+		return packed & 0x0f;
+	}
+	
+	/**
+	 * Get the first data byte from a packed short message.
+	 * 
+	 * @param packed a packed short message
+	 * @return the first data byte
+	 */
+	public static int getPackedData1(int packed) {
+		return (packed >>> 8) & 0xff;
+	}
+	
+	/**
+	 * Get the second data byte from a packed short message.
+	 * 
+	 * @param packed a packed short message
+	 * @return the second data byte
+	 */
+	public static int getPackedData2(int packed) {
+		return (packed >>> 16) & 0xff;
+	}
+	
+	/**
+	 * Return a copy of a packed short message with a different status byte.
+	 * 
+	 * @param packed  a packed short message
+	 * @param status  the new status byte
+	 * @return the modified packed short message
+	 */
+	public static int withPackedStatus(int packed, int status) {
+		return (packed & ~0xff) | (status & 0xff);
+	}
+	
+	/**
+	 * Return a copy of a packed short message with a different channel.
+	 * 
+	 * @param packed   a packed short message
+	 * @param channel  the new channel (0-15)
+	 * @return the modified packed short message
+	 */
+	public static int withPackedChannel(int packed, int channel) {
+		return (packed & ~0x0f) | (channel & 0x0f);
+	}
+	
+	/**
+	 * Return a copy of a packed short message with a different first data byte.
+	 * 
+	 * @param packed  a packed short message
+	 * @param data1   the new first data byte
+	 * @return the modified packed short message
+	 */
+	public static int withPackedData1(int packed, int data1) {
+		return (packed & ~0xff00) | ((data1 & 0xff) << 8);
+	}
+	
+	/**
+	 * Return a copy of a packed short message with a different second data byte.
+	 * 
+	 * @param packed  a packed short message
+	 * @param data2   the new second data byte
+	 * @return the modified packed short message
+	 */
+	public static int withPackedData2(int packed, int data2) {
+		return (packed & ~0xff0000) | ((data2 & 0xff) << 16);
+	}
+	
+	/**
+	 * Check whether a packed short message has the same contents as
+	 * a MidiMessage.  This is useful for deciding whether the
+	 * original MidiMessage can be used in place of a packed message
+	 * (avoiding creating a new ShortMessage).
+	 * 
+	 * @param packed  a packed short message
+	 * @param msg     a MidiMessage
+	 * @return true if the MidiMessage is a ShortMessage with the same contents
+	 */
+	public static boolean packedEquals(int packed, MidiMessage msg) {
+		return packed != 0 && msg instanceof ShortMessage && pack(msg) == packed;
+	}
+	
+	/**
+	 * Convert a packed short message to a ShortMessage.
+	 * This allocates a new ShortMessage, so it should only be done
+	 * where a MidiMessage object is required.
+	 * Throws a RuntimeException if the data is not a valid midi message.
+	 * 
+	 * @param packed a packed short message
+	 * @return the ShortMessage
+	 */
+	public static ShortMessage toShortMessage(int packed) {
+		return createShortMessage(getPackedStatus(packed), getPackedData1(packed), getPackedData2(packed));
+	}
 
 	/**
 	 * Check whether the given Bead has a midi message to deliver.
@@ -85,6 +267,45 @@ public class Midi {
 		return ((MidiMessageSource)message).getTimeStamp();
 	}
 	
+	/**
+	 * Check whether the given Bead has a batch of midi events to deliver.
+	 * 
+	 * @param bead a Bead (message sender)
+	 * @return true if the Bead has a batch of midi events to deliver, false otherwise
+	 */
+	public static boolean hasMidiEventBatch(Bead bead) {
+		return bead instanceof MidiEventBatch;
+	}
+	
+	/**
+	 * Get the batch of midi events from given Bead.
+	 * Assumes that {@link #hasMidiEventBatch(Bead)} returned true.
+	 * 
+	 * @param message a Bead (message sender)
+	 * @return the batch of midi events
+	 */
+	public static MidiEventBatch getMidiEventBatch(Bead message) {
+		return (MidiEventBatch) message;
+	}
+	
+	/**
+	 * Get a MidiMessage from a batch of midi events, creating a
+	 * ShortMessage from the packed message if the event
+	 * has no MidiMessage object.  The created ShortMessage is stored
+	 * in the batch's array of MidiMessages, so that it is only created once.
+	 * 
+	 * @param batch  a batch of midi events
+	 * @param i      index of the event
+	 * @return the MidiMessage
+	 */
+	public static MidiMessage getMessage(MidiEventBatch batch, int i) {
+		MidiMessage[] msgs = batch.getMessages();
+		if (msgs[i] == null) {
+			msgs[i] = toShortMessage(batch.getPackedMessages()[i]);
+		}
+		return msgs[i];
+	}
+	
 	/**
 	 * Create a ShortMessage from given byte array.
 	 * Throws a RuntimeException if the data is not a valid
@@ -0,0 +1,82 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * An interface to be implemented by Beads that deliver all of the
+ * midi messages for an audio frame at once.  This is an optional
+ * alternative to {@link MidiMessageSource}: rather than receiving one
+ * <code>messageReceived</code> call per MidiMessage, a recipient Bead
+ * receives a single call per frame, and can process the frame's
+ * messages in one loop.  Use {@link Midi#hasMidiEventBatch(net.beadsproject.beads.core.Bead)}
+ * and {@link Midi#getMidiEventBatch(net.beadsproject.beads.core.Bead)}
+ * to check for and access a batch in <code>messageReceived</code>.
+ * 
+ * <p>Events are stored in parallel arrays, in timestamp order.
+ * Only the first {@link #getEventCount()} elements of each array are
+ * valid, and the arrays are only valid for the duration of the
+ * <code>messageReceived</code> call: recipients must not modify them
+ * or keep references to them.
+ * 
+ * <p>Short messages are also available in packed form
+ * (see {@link Midi#pack(MidiMessage)}).  Messages that are not short
+ * messages (e.g., sysex messages) have a packed value of 0, and are
+ * only available as MidiMessage objects.
+ * 
+ * @author David Hovemeyer
+ */
+public interface MidiEventBatch {
+	/**
+	 * Get the number of events in the batch.
+	 * 
+	 * @return the number of events
+	 */
+	public int getEventCount();
+	
+	/**
+	 * Get the microsecond timestamps of the events in the batch.
+	 * 
+	 * @return array of microsecond timestamps
+	 */
+	public long[] getTimeStamps();
+	
+	/**
+	 * Get the packed status and data bytes of the events in the batch.
+	 * 
+	 * @return array of packed short messages
+	 */
+	public int[] getPackedMessages();
+	
+	/**
+	 * Get the MidiMessages of the events in the batch.
+	 * An element may be null if the event was modified by a
+	 * {@link MidiTransform}, in which case only the packed form
+	 * of the message is available.  {@link Midi#getMessage(MidiEventBatch, int)}
+	 * handles this case, storing the ShortMessage it creates in the array
+	 * (the only modification recipients may make).
+	 * 
+	 * @return array of MidiMessages
+	 */
+	public MidiMessage[] getMessages();
+}
@@ -0,0 +1,319 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sound.midi.MidiMessage;
+
+/**
+ * Bounded multi-producer/single-consumer queue of timestamped
+ * MidiMessages.  Any number of threads (e.g., midi input devices)
+ * may call {@link #offer(MidiMessage, long)} concurrently without
+ * locking.  A single consumer thread (normally the audio thread)
+ * calls {@link #transferPending()} and {@link #pollBefore(double)}
+ * to retrieve messages in timestamp order.
+ *
+ * <p>Messages with equal timestamps are never merged: they are
+ * delivered in the order in which they arrived.  Once the queue
+ * is full, the {@link OverflowPolicy} determines what happens to
+ * additional messages; dropped messages are counted and can be
+ * retrieved using {@link #getDroppedCount()}.
+ *
+ * <p>Timestamps and sequence numbers are stored in primitive arrays,
+ * so adding or removing a message does not allocate any objects.
+ *
+ * @author David Hovemeyer
+ */
+public class MidiEventQueue {
+	/**
+	 * What to do when a message is offered to a full queue.
+	 */
+	public enum OverflowPolicy {
+		/** Discard the offered message (and count it as dropped). */
+		DROP_NEWEST,
+
+		/**
+		 * Wait (by yielding) until the consumer makes room.
+		 * Only appropriate for producers that are not realtime-sensitive,
+		 * such as a sequencer feeding messages ahead of time.
+		 */
+		BLOCK,
+	}
+
+	// Ring buffer shared by producers and the consumer.
+	// Each slot has a sequence number used to coordinate producers
+	// and the consumer: a slot is free for the producer claiming
+	// position p when its sequence is p, and holds a published message
+	// for the consumer at position p when its sequence is p+1.
+	private final int capacity;
+	private final int mask;
+	private final AtomicLongArray slotSeq;
+	private final long[] ringTimeStamps;
+	private final MidiMessage[] ringMessages;
+	private final AtomicLong tail;
+	private long head; // only accessed by the consumer
+
+	private final OverflowPolicy overflowPolicy;
+	private final AtomicLong dropped;
+
+	// Consumer-side binary min-heap of messages which have been
+	// removed from the ring but not yet delivered, ordered by
+	// timestamp and then by arrival sequence number.
+	private final long[] heapTimeStamps;
+	private final long[] heapSeqs;
+	private final MidiMessage[] heapMessages;
+	private int heapSize;
+
+	// Most recently polled message
+	private MidiMessage polledMessage;
+	private long polledTimeStamp;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity        maximum number of messages which can be queued
+	 *                        (rounded up to a power of 2)
+	 * @param overflowPolicy  what to do with messages offered when the queue is full
+	 */
+	public MidiEventQueue(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+		}
+		int cap = Integer.highestOneBit(capacity);
+		if (cap < capacity) {
+			cap <<= 1;
+		}
+		this.capacity = cap;
+		this.mask = cap - 1;
+		this.slotSeq = new AtomicLongArray(cap);
+		for (int i = 0; i < cap; i++) {
+			slotSeq.set(i, i);
+		}
+		this.ringTimeStamps = new long[cap];
+		this.ringMessages = new MidiMessage[cap];
+		this.tail = new AtomicLong(0L);
+		this.head = 0L;
+		this.overflowPolicy = overflowPolicy;
+		this.dropped = new AtomicLong(0L);
+		this.heapTimeStamps = new long[cap];
+		this.heapSeqs = new long[cap];
+		this.heapMessages = new MidiMessage[cap];
+		this.heapSize = 0;
+	}
+
+	/**
+	 * Get the capacity of the queue.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the overflow policy.
+	 *
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Get the number of messages that have been dropped because
+	 * the queue was full.
+	 *
+	 * @return the number of dropped messages
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Add a message to the queue.  May be called concurrently
+	 * from any number of threads.
+	 *
+	 * @param msg        the MidiMessage
+	 * @param timeStamp  the message's microsecond timestamp
+	 * @return true if the message was added, false if it was dropped
+	 */
+	public boolean offer(MidiMessage msg, long timeStamp) {
+		long pos;
+		int idx;
+		while (true) {
+			pos = tail.get();
+			idx = (int) (pos & mask);
+			long dif = slotSeq.get(idx) - pos;
+			if (dif == 0L) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					break;
+				}
+			} else if (dif < 0L) {
+				// Queue is full
+				if (overflowPolicy == OverflowPolicy.BLOCK) {
+					Thread.yield();
+				} else {
+					dropped.incrementAndGet();
+					return false;
+				}
+			}
+			// Otherwise, another producer claimed this position: try again
+		}
+
+		ringTimeStamps[idx] = timeStamp;
+		ringMessages[idx] = msg;
+		// Publish: the ordered store makes the slot contents visible
+		// to the consumer before the updated sequence number
+		slotSeq.lazySet(idx, pos + 1);
+		return true;
+	}
+
+	/**
+	 * Move all messages published by producers into the consumer-side
+	 * pending set, where they are ordered by timestamp.  Must only be
+	 * called by the consumer thread.
+	 */
+	public void transferPending() {
+		while (heapSize < capacity) {
+			int idx = (int) (head & mask);
+			if (slotSeq.get(idx) != head + 1) {
+				// No more published messages
+				break;
+			}
+			long ts = ringTimeStamps[idx];
+			MidiMessage msg = ringMessages[idx];
+			ringMessages[idx] = null;
+			// Release the slot for reuse by producers
+			slotSeq.lazySet(idx, head + capacity);
+			heapInsert(ts, head, msg);
+			head++;
+		}
+	}
+
+	/**
+	 * Remove the earliest pending message, but only if its timestamp
+	 * is earlier than the given limit.  If a message is removed, it is available
+	 * from {@link #getPolledMessage()} and {@link #getPolledTimeStamp()}.
+	 * Must only be called by the consumer thread.
+	 *
+	 * @param limit  exclusive upper bound on the timestamp of the message to remove
+	 * @return true if a message was removed, false if there is no pending
+	 *         message with a timestamp earlier than the limit
+	 */
+	public boolean pollBefore(double limit) {
+		if (heapSize == 0 || heapTimeStamps[0] >= limit) {
+			return false;
+		}
+		polledTimeStamp = heapTimeStamps[0];
+		polledMessage = heapMessages[0];
+		heapRemoveFirst();
+		return true;
+	}
+
+	/**
+	 * Get the MidiMessage removed by the most recent successful
+	 * call to {@link #pollBefore(double)}.
+	 *
+	 * @return the most recently polled MidiMessage
+	 */
+	public MidiMessage getPolledMessage() {
+		return polledMessage;
+	}
+
+	/**
+	 * Get the timestamp of the MidiMessage removed by the most recent
+	 * successful call to {@link #pollBefore(double)}.
+	 *
+	 * @return the timestamp of the most recently polled MidiMessage
+	 */
+	public long getPolledTimeStamp() {
+		return polledTimeStamp;
+	}
+
+	/**
+	 * Get the number of messages in the consumer-side pending set
+	 * (i.e., transferred but not yet polled).  Must only be called
+	 * by the consumer thread.
+	 *
+	 * @return number of pending messages
+	 */
+	public int getPendingCount() {
+		return heapSize;
+	}
+
+	// Returns true if the entry (ts1,seq1) should be delivered before (ts2,seq2)
+	private static boolean before(long ts1, long seq1, long ts2, long seq2) {
+		return ts1 < ts2 || (ts1 == ts2 && seq1 < seq2);
+	}
+
+	private void heapInsert(long ts, long seq, MidiMessage msg) {
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(ts, seq, heapTimeStamps[parent], heapSeqs[parent])) {
+				break;
+			}
+			heapMove(parent, i);
+			i = parent;
+		}
+		heapTimeStamps[i] = ts;
+		heapSeqs[i] = seq;
+		heapMessages[i] = msg;
+	}
+
+	private void heapRemoveFirst() {
+		int last = --heapSize;
+		long ts = heapTimeStamps[last];
+		long seq = heapSeqs[last];
+		MidiMessage msg = heapMessages[last];
+		heapMessages[last] = null;
+		if (last == 0) {
+			return;
+		}
+		int i = 0;
+		while (true) {
+			int child = 2*i + 1;
+			if (child >= last) {
+				break;
+			}
+			if (child + 1 < last && before(heapTimeStamps[child + 1], heapSeqs[child + 1], heapTimeStamps[child], heapSeqs[child])) {
+				child++;
+			}
+			if (!before(heapTimeStamps[child], heapSeqs[child], ts, seq)) {
+				break;
+			}
+			heapMove(child, i);
+			i = child;
+		}
+		heapTimeStamps[i] = ts;
+		heapSeqs[i] = seq;
+		heapMessages[i] = msg;
+	}
+
+	private void heapMove(int from, int to) {
+		heapTimeStamps[to] = heapTimeStamps[from];
+		heapSeqs[to] = heapSeqs[from];
+		heapMessages[to] = heapMessages[from];
+	}
+}
@@ -0,0 +1,206 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * Statistics about dispatching midi messages in a
+ * {@link ReceivedMidiMessageSource}: how many messages are waiting
+ * to be delivered, how late they are when delivered, and how long
+ * dispatching takes.  When instrumentation is enabled for a
+ * ReceivedMidiMessageSource, an instance of this class is registered
+ * as a JMX MBean, and JDK Flight Recorder dispatch events are emitted
+ * (if available).
+ * 
+ * @author David Hovemeyer
+ */
+public class MidiSourceStats implements MidiSourceStatsMBean {
+	private final ReceivedMidiMessageSource source;
+	private final LatencyHistogram queueDepth;
+	private final LatencyHistogram latenessMicros;
+	private final LatencyHistogram dispatchNanos;
+	private final boolean jfr;
+	private Object jfrEvent;
+	private long maxLatenessMicros;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param source the ReceivedMidiMessageSource
+	 */
+	public MidiSourceStats(ReceivedMidiMessageSource source) {
+		this.source = source;
+		this.queueDepth = new LatencyHistogram();
+		this.latenessMicros = new LatencyHistogram();
+		this.dispatchNanos = new LatencyHistogram();
+		this.jfr = Instrumentation.isJfrAvailable();
+	}
+	
+	/**
+	 * Called at the start of dispatching a frame's messages.
+	 * 
+	 * @param pending number of messages waiting for delivery
+	 * @return the start time in nanoseconds, to be passed to {@link #dispatchEnd(long, int, int)}
+	 */
+	public long dispatchStart(int pending) {
+		if (jfr) {
+			jfrEvent = JfrEvents.beginDispatch();
+		}
+		queueDepth.record(pending);
+		maxLatenessMicros = 0L;
+		return System.nanoTime();
+	}
+	
+	/**
+	 * Called for each message dispatched.
+	 * 
+	 * @param latenessMicros how late the message is (0 or negative if on time)
+	 */
+	public void messageDispatched(long latenessMicros) {
+		if (latenessMicros < 0L) {
+			latenessMicros = 0L;
+		}
+		this.latenessMicros.record(latenessMicros);
+		if (latenessMicros > maxLatenessMicros) {
+			maxLatenessMicros = latenessMicros;
+		}
+	}
+	
+	/**
+	 * Called at the end of dispatching a frame's messages.
+	 * 
+	 * @param startNanos  the start time returned by {@link #dispatchStart(int)}
+	 * @param messages    number of messages dispatched
+	 * @param pending     number of messages waiting for delivery at the start of the frame
+	 */
+	public void dispatchEnd(long startNanos, int messages, int pending) {
+		dispatchNanos.record(System.nanoTime() - startNanos);
+		if (jfrEvent != null) {
+			JfrEvents.endDispatch(jfrEvent, messages, pending, maxLatenessMicros);
+			jfrEvent = null;
+		}
+	}
+	
+	/**
+	 * Get the histogram of queue depths (the number of messages
+	 * waiting for delivery at the start of each frame).
+	 * 
+	 * @return the histogram of queue depths
+	 */
+	public LatencyHistogram getQueueDepthHistogram() {
+		return queueDepth;
+	}
+	
+	/**
+	 * Get the histogram of message lateness, in microseconds.
+	 * 
+	 * @return the histogram of message lateness
+	 */
+	public LatencyHistogram getLatenessHistogram() {
+		return latenessMicros;
+	}
+	
+	/**
+	 * Get the histogram of dispatch times, in nanoseconds.
+	 * 
+	 * @return the histogram of dispatch times
+	 */
+	public LatencyHistogram getDispatchTimeHistogram() {
+		return dispatchNanos;
+	}
+
+	@Override
+	public long getDispatchedMessageCount() {
+		return latenessMicros.getCount();
+	}
+
+	@Override
+	public long getDroppedMessageCount() {
+		return source.getDroppedMessageCount();
+	}
+
+	@Override
+	public long getLateMessageCount() {
+		return source.getLateMessageCount();
+	}
+
+	@Override
+	public long getQueueDepthP50() {
+		return queueDepth.getValueAtPercentile(50.0);
+	}
+
+	@Override
+	public long getQueueDepthP99() {
+		return queueDepth.getValueAtPercentile(99.0);
+	}
+
+	@Override
+	public long getQueueDepthMax() {
+		return queueDepth.getMax();
+	}
+
+	@Override
+	public double getLatenessP99Micros() {
+		return latenessMicros.getValueAtPercentile(99.0);
+	}
+
+	@Override
+	public double getLatenessP999Micros() {
+		return latenessMicros.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public double getLatenessMaxMicros() {
+		return latenessMicros.getMax();
+	}
+
+	@Override
+	public double getDispatchTimeP99Micros() {
+		return dispatchNanos.getValueAtPercentile(99.0) / 1000.0;
+	}
+
+	@Override
+	public double getDispatchTimeMaxMicros() {
+		return dispatchNanos.getMax() / 1000.0;
+	}
+
+	@Override
+	public double getEffectiveDelayMs() {
+		return source.getEffectiveDelayMs();
+	}
+
+	@Override
+	public double getClockJitterMs() {
+		return source.getClockEstimator().getJitterMs();
+	}
+
+	@Override
+	public double getClockDriftPpm() {
+		return source.getClockEstimator().getDriftPpm();
+	}
+
+	@Override
+	public void reset() {
+		queueDepth.reset();
+		latenessMicros.reset();
+		dispatchNanos.reset();
+	}
+}
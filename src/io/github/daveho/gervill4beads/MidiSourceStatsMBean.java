@@ -0,0 +1,75 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * JMX management interface for {@link MidiSourceStats}.
+ * Times are in microseconds unless otherwise noted.
+ * 
+ * @author David Hovemeyer
+ */
+public interface MidiSourceStatsMBean {
+	/** @return number of messages dispatched */
+	public long getDispatchedMessageCount();
+	
+	/** @return number of messages dropped because the queue was full */
+	public long getDroppedMessageCount();
+	
+	/** @return number of messages delivered after their timestamp */
+	public long getLateMessageCount();
+	
+	/** @return median number of messages waiting for delivery at the start of a frame */
+	public long getQueueDepthP50();
+	
+	/** @return 99th percentile number of messages waiting for delivery at the start of a frame */
+	public long getQueueDepthP99();
+	
+	/** @return maximum number of messages waiting for delivery at the start of a frame */
+	public long getQueueDepthMax();
+	
+	/** @return 99th percentile message lateness (0 for messages which are on time) */
+	public double getLatenessP99Micros();
+	
+	/** @return 99.9th percentile message lateness (0 for messages which are on time) */
+	public double getLatenessP999Micros();
+	
+	/** @return maximum message lateness */
+	public double getLatenessMaxMicros();
+	
+	/** @return 99th percentile time taken to dispatch a frame's messages */
+	public double getDispatchTimeP99Micros();
+	
+	/** @return maximum time taken to dispatch a frame's messages */
+	public double getDispatchTimeMaxMicros();
+	
+	/** @return current delay applied to realtime messages, in milliseconds */
+	public double getEffectiveDelayMs();
+	
+	/** @return estimated audio clock jitter, in milliseconds */
+	public double getClockJitterMs();
+	
+	/** @return estimated audio clock drift, in parts per million */
+	public double getClockDriftPpm();
+	
+	/** Discard all statistics collected so far, before the next value is recorded. */
+	public void reset();
+}
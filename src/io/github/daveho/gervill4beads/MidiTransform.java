@@ -0,0 +1,47 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * A stage in a pipeline of midi message transformations
+ * (e.g., channel remapping, transposition, velocity curves,
+ * or filtering).  Transforms operate on packed short messages
+ * (see {@link Midi#pack(int, int, int)}), so applying a
+ * transform doesn't require creating any objects.
+ * Use {@link MidiTransformChain} to combine several transforms
+ * into a single transform, {@link MidiTransforms} for some
+ * commonly-needed transforms, and either {@link TransformingReceiver}
+ * or {@link ReceivedMidiMessageSource#setTransform(MidiTransform)}
+ * to apply a transform to received midi messages.
+ * 
+ * @author David Hovemeyer
+ */
+public interface MidiTransform {
+	/**
+	 * Transform a packed short message.
+	 * 
+	 * @param packed the packed short message
+	 * @return the transformed packed short message, or 0 if the
+	 *         message should be dropped
+	 */
+	public int transform(int packed);
+}
@@ -0,0 +1,62 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * A {@link MidiTransform} which applies a sequence of transforms,
+ * in order.  If any stage drops the message, later stages are
+ * not applied.
+ * 
+ * @author David Hovemeyer
+ */
+public class MidiTransformChain implements MidiTransform {
+	private final MidiTransform[] stages;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param stages the transforms to apply, in order
+	 */
+	public MidiTransformChain(MidiTransform... stages) {
+		this.stages = stages.clone();
+	}
+	
+	/**
+	 * Get the number of stages.
+	 * 
+	 * @return the number of stages
+	 */
+	public int getNumStages() {
+		return stages.length;
+	}
+	
+	@Override
+	public int transform(int packed) {
+		for (MidiTransform stage : stages) {
+			if (packed == 0) {
+				break;
+			}
+			packed = stage.transform(packed);
+		}
+		return packed;
+	}
+}
@@ -0,0 +1,198 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Factory methods for commonly-needed {@link MidiTransform}s.
+ * Transforms which modify channel messages leave system messages
+ * (status 0xF0 and above) unchanged.
+ * 
+ * @author David Hovemeyer
+ */
+public class MidiTransforms {
+	/**
+	 * Create a transform which changes the channel of all
+	 * channel messages to the given channel.
+	 * 
+	 * @param channel the channel (0-15: note that 9 is midi channel 10, percussion)
+	 * @return the transform
+	 */
+	public static MidiTransform setChannel(final int channel) {
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				return isChannelMessage(packed) ? Midi.withPackedChannel(packed, channel) : packed;
+			}
+		};
+	}
+	
+	/**
+	 * Create a transform which remaps channels using a table.
+	 * 
+	 * @param channelMap array of 16 elements, specifying the new channel
+	 *                   for each original channel
+	 * @return the transform
+	 */
+	public static MidiTransform remapChannels(int[] channelMap) {
+		if (channelMap.length != 16) {
+			throw new IllegalArgumentException("Channel map must have 16 entries");
+		}
+		final int[] map = channelMap.clone();
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				return isChannelMessage(packed)
+						? Midi.withPackedChannel(packed, map[Midi.getPackedChannel(packed)])
+						: packed;
+			}
+		};
+	}
+	
+	/**
+	 * Create a transform which transposes note messages (NOTE_ON,
+	 * NOTE_OFF, and POLY_PRESSURE) by the given number of semitones.
+	 * Notes transposed out of the range 0-127 are dropped.
+	 * 
+	 * @param semitones number of semitones to transpose by (may be negative)
+	 * @return the transform
+	 */
+	public static MidiTransform transpose(final int semitones) {
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				if (!isNoteMessage(packed)) {
+					return packed;
+				}
+				int note = Midi.getPackedData1(packed) + semitones;
+				if (note < 0 || note > 127) {
+					return 0;
+				}
+				return Midi.withPackedData1(packed, note);
+			}
+		};
+	}
+	
+	/**
+	 * Create a transform which maps the velocity of NOTE_ON messages
+	 * using a table.  NOTE_ON messages with velocity 0 (which are
+	 * equivalent to NOTE_OFF messages) are not changed.
+	 * 
+	 * @param velocityMap array of 128 elements, specifying the new velocity
+	 *                    for each original velocity
+	 * @return the transform
+	 */
+	public static MidiTransform velocityCurve(int[] velocityMap) {
+		if (velocityMap.length != 128) {
+			throw new IllegalArgumentException("Velocity map must have 128 entries");
+		}
+		final int[] map = velocityMap.clone();
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				if (Midi.getPackedCommand(packed) != ShortMessage.NOTE_ON) {
+					return packed;
+				}
+				int velocity = Midi.getPackedData2(packed);
+				if (velocity == 0) {
+					return packed;
+				}
+				return Midi.withPackedData2(packed, map[velocity]);
+			}
+		};
+	}
+	
+	/**
+	 * Create a transform which maps the velocity of NOTE_ON messages
+	 * using a power curve.  Exponents less than 1 make soft notes louder,
+	 * and exponents greater than 1 make soft notes quieter.  Nonzero velocities
+	 * are never mapped to 0.
+	 * 
+	 * @param exponent the exponent
+	 * @return the transform
+	 */
+	public static MidiTransform velocityCurve(double exponent) {
+		int[] map = new int[128];
+		for (int i = 1; i < 128; i++) {
+			int v = (int) Math.round(127.0 * Math.pow(i / 127.0, exponent));
+			map[i] = Math.max(1, Math.min(127, v));
+		}
+		return velocityCurve(map);
+	}
+	
+	/**
+	 * Create a transform which drops messages with the given commands
+	 * (e.g., <code>ShortMessage.CONTROL_CHANGE</code>).
+	 * 
+	 * @param commands the commands to drop
+	 * @return the transform
+	 */
+	public static MidiTransform dropCommands(int... commands) {
+		final boolean[] drop = new boolean[256];
+		for (int command : commands) {
+			drop[command & 0xff] = true;
+		}
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				return drop[Midi.getPackedCommand(packed)] ? 0 : packed;
+			}
+		};
+	}
+	
+	/**
+	 * Create a transform which implements a keyboard split:
+	 * note messages for notes below the split note are sent to one channel,
+	 * and note messages for notes at or above the split note
+	 * are sent to another channel.  Other messages are not changed.
+	 * 
+	 * @param splitNote    the lowest note of the upper part of the keyboard
+	 * @param lowChannel   channel for notes below the split note
+	 * @param highChannel  channel for notes at or above the split note
+	 * @return the transform
+	 */
+	public static MidiTransform split(final int splitNote, final int lowChannel, final int highChannel) {
+		return new MidiTransform() {
+			@Override
+			public int transform(int packed) {
+				if (!isNoteMessage(packed)) {
+					return packed;
+				}
+				int channel = Midi.getPackedData1(packed) < splitNote ? lowChannel : highChannel;
+				return Midi.withPackedChannel(packed, channel);
+			}
+		};
+	}
+	
+	private static boolean isChannelMessage(int packed) {
+		int status = Midi.getPackedStatus(packed);
+		return status >= 0x80 && status < 0xf0;
+	}
+	
+	private static boolean isNoteMessage(int packed) {
+		int command = Midi.getPackedCommand(packed);
+		return command == ShortMessage.NOTE_ON
+				|| command == ShortMessage.NOTE_OFF
+				|| command == ShortMessage.POLY_PRESSURE;
+	}
+}
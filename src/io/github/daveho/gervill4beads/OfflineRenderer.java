@@ -0,0 +1,225 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Soundbank;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.IOAudioFormat;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+
+/**
+ * Renders a midi <code>Sequence</code> to a WAV file as fast as possible,
+ * using a {@link GervillUGen} in a non-realtime AudioContext.
+ * Messages are delivered by a {@link SequenceMidiMessageSource}, so they
+ * are played at exact sample positions, and rendering the same
+ * sequence with the same settings always produces the same output.
+ * Audio is written to the file as it is rendered, so the length of
+ * the sequence is not limited by available memory.
+ * 
+ * @author David Hovemeyer
+ */
+public class OfflineRenderer {
+	/** Default buffer size, in frames. */
+	public static int DEFAULT_BUFFER_SIZE = 1024;
+	
+	/**
+	 * Default amount of time rendered after the last event
+	 * in the sequence, to allow notes and effects to decay.
+	 */
+	public static double DEFAULT_TAIL_MS = 2000.0;
+	
+	/**
+	 * Result of rendering a sequence.
+	 */
+	public static class Result {
+		/** Number of audio frames written. */
+		public final long frames;
+		
+		/** Duration of the rendered audio, in seconds. */
+		public final double audioSeconds;
+		
+		/** Time taken to render the audio, in seconds. */
+		public final double elapsedSeconds;
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param frames          number of audio frames written
+		 * @param audioSeconds    duration of the rendered audio, in seconds
+		 * @param elapsedSeconds  time taken to render the audio, in seconds
+		 */
+		public Result(long frames, double audioSeconds, double elapsedSeconds) {
+			this.frames = frames;
+			this.audioSeconds = audioSeconds;
+			this.elapsedSeconds = elapsedSeconds;
+		}
+		
+		/**
+		 * Get the realtime factor: how many times faster than
+		 * realtime the audio was rendered.
+		 * 
+		 * @return the realtime factor
+		 */
+		public double getRealtimeFactor() {
+			return audioSeconds / elapsedSeconds;
+		}
+	}
+	
+	private float sampleRate;
+	private int bufferSize;
+	private Map<String, Object> info;
+	private Soundbank soundbank;
+	private double tailMs;
+	private boolean floatOutput;
+	
+	/**
+	 * Constructor.  Uses the {@link #DEFAULT_BUFFER_SIZE default buffer size}
+	 * and default synthesizer settings.
+	 * 
+	 * @param sampleRate the sample rate of the rendered audio
+	 */
+	public OfflineRenderer(float sampleRate) {
+		this(sampleRate, DEFAULT_BUFFER_SIZE, Collections.<String, Object>emptyMap());
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param sampleRate  the sample rate of the rendered audio
+	 * @param bufferSize  the AudioContext buffer size, in frames
+	 * @param info        info, used when opening an audio input stream from the synthesizer
+	 */
+	public OfflineRenderer(float sampleRate, int bufferSize, Map<String, Object> info) {
+		this.sampleRate = sampleRate;
+		this.bufferSize = bufferSize;
+		this.info = info;
+		this.tailMs = DEFAULT_TAIL_MS;
+		this.floatOutput = false;
+	}
+	
+	/**
+	 * Set a Soundbank whose instruments should be loaded into the
+	 * synthesizer before rendering.  If not set, Gervill's default
+	 * soundbank is used.
+	 * 
+	 * @param soundbank the Soundbank
+	 */
+	public void setSoundbank(Soundbank soundbank) {
+		this.soundbank = soundbank;
+	}
+	
+	/**
+	 * Set the amount of time rendered after the last event in the sequence.
+	 * 
+	 * @param tailMs the tail time in milliseconds
+	 */
+	public void setTailMs(double tailMs) {
+		this.tailMs = tailMs;
+	}
+	
+	/**
+	 * Set whether the WAV file should contain 32 bit float samples
+	 * (rather than 16 bit PCM samples).
+	 * 
+	 * @param floatOutput true for 32 bit float samples, false for 16 bit PCM samples
+	 */
+	public void setFloatOutput(boolean floatOutput) {
+		this.floatOutput = floatOutput;
+	}
+	
+	/**
+	 * Render a Sequence to a WAV file.
+	 * 
+	 * @param sequence  the Sequence
+	 * @param outFile   the WAV file to write
+	 * @return the {@link Result}
+	 * @throws IOException if the WAV file can't be written
+	 * @throws MidiUnavailableException if the synthesizer can't be created
+	 */
+	public Result render(Sequence sequence, File outFile) throws IOException, MidiUnavailableException {
+		AudioContext ac = new AudioContext(new NonrealtimeIO(), bufferSize, new IOAudioFormat(sampleRate, 16, 0, 2));
+		final GervillUGen gervill = new GervillUGen(ac, info);
+		try {
+			if (soundbank != null) {
+				gervill.getSynth().loadAllInstruments(soundbank);
+			}
+			
+			SequenceMidiMessageSource source = new SequenceMidiMessageSource(ac, sequence);
+			source.addMessageListener(gervill);
+			ac.out.addInput(gervill);
+			
+			double durationMs = source.getLengthUs() / 1000.0 + tailMs;
+			final long totalFrames = (long) Math.ceil(ac.msToSamples(durationMs));
+			final WavWriter writer = new WavWriter(outFile, sampleRate, 2, floatOutput);
+			final IOException[] writeError = new IOException[1];
+			try {
+				// Write each frame of audio generated by the GervillUGen,
+				// stopping when the requested duration has been written
+				final AudioContext context = ac;
+				final float[][] out = new float[2][];
+				ac.invokeAfterEveryFrame(new Bead() {
+					@Override
+					protected void messageReceived(Bead message) {
+						long remaining = totalFrames - writer.getFramesWritten();
+						int n = (int) Math.min(bufferSize, remaining);
+						out[0] = gervill.getOutBuffer(0);
+						out[1] = gervill.getOutBuffer(1);
+						try {
+							writer.write(out, 0, n);
+						} catch (IOException e) {
+							writeError[0] = e;
+							context.stop();
+							return;
+						}
+						if (n == remaining) {
+							context.stop();
+						}
+					}
+				});
+				
+				long start = System.nanoTime();
+				// Allow an extra frame, since we stop the AudioContext ourselves
+				// once all of the audio has been written
+				ac.runForNMillisecondsNonRealTime(durationMs + 2*ac.samplesToMs(bufferSize));
+				double elapsedSeconds = (System.nanoTime() - start) / 1000000000.0;
+				
+				if (writeError[0] != null) {
+					throw writeError[0];
+				}
+				return new Result(writer.getFramesWritten(), writer.getFramesWritten() / (double) sampleRate, elapsedSeconds);
+			} finally {
+				writer.close();
+			}
+		} finally {
+			gervill.close();
+		}
+	}
+}
@@ -0,0 +1,343 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.sound.midi.Instrument;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Soundbank;
+
+/**
+ * Loads a soundbank file, and reads all of its sample data into memory
+ * in parallel, using a ForkJoinPool.  When a soundbank is loaded from a file,
+ * Gervill only parses the file's instrument, region, and sample tables:
+ * the sample data stays in the file until the instruments are loaded
+ * into a synthesizer, which then reads all of it using a single thread.
+ * The ParallelSoundbankLoader instead finds the sample data of each
+ * instrument (examining instruments in parallel), and splits it into chunks
+ * which are read in parallel.  Gervill doesn't read sample data again
+ * once it is in memory, so loading the resulting Soundbank into a
+ * synthesizer is then fast.
+ * 
+ * <p>Gervill stores sample data as it appears in the file (conversion to
+ * floating point happens as samples are played), so reading is the only
+ * work on sample data to parallelize.  The sample data of a file must fit
+ * in a Java array: use {@link MappedSoundbank} for larger soundbanks.
+ * Setting Gervill's sample buffers requires reflective access to Gervill's
+ * internals: see {@link #isSupported()}.
+ * 
+ * @author David Hovemeyer
+ */
+public class ParallelSoundbankLoader {
+	/**
+	 * Default size (in bytes) of the chunks of sample data read by each task.
+	 */
+	public static int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	// Largest array the JVM can reliably allocate
+	private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	
+	/**
+	 * Check whether soundbanks can be loaded in parallel: Gervill's internals
+	 * must be accessible using reflection.
+	 * 
+	 * @return true if soundbanks can be loaded in parallel
+	 */
+	public static boolean isSupported() {
+		return Gervill.get() != null;
+	}
+	
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool the ForkJoinPool to use, or null to use a temporary
+	 *             pool with one thread per processor for each load
+	 */
+	public ParallelSoundbankLoader(ForkJoinPool pool) {
+		this.pool = pool;
+		this.chunkSize = DEFAULT_CHUNK_SIZE;
+	}
+	
+	/**
+	 * Load a soundbank file, reading its sample data in parallel.
+	 * 
+	 * @param file the soundbank file
+	 * @return the Soundbank, with all of its sample data in memory
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public Soundbank load(File file) throws IOException, InvalidMidiDataException {
+		Gervill gervill = Gervill.get();
+		if (gervill == null) {
+			throw new IOException("Parallel soundbank loading requires reflective access to Gervill's internals "
+					+ "(--add-opens java.desktop/com.sun.media.sound=ALL-UNNAMED)");
+		}
+		Soundbank soundbank = MidiSystem.getSoundbank(file);
+		
+		ForkJoinPool p = pool != null ? pool : new ForkJoinPool();
+		try {
+			// Find the root buffers (normally, one per file) containing
+			// the sample data of all of the instruments
+			Instrument[] instruments = soundbank.getInstruments();
+			Set<Object> roots = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+			p.invoke(new FindBuffers(gervill, instruments, 0, instruments.length, roots));
+			
+			for (Object root : roots) {
+				readRoot(gervill, p, root);
+			}
+		} finally {
+			if (p != pool) {
+				p.shutdown();
+			}
+		}
+		return soundbank;
+	}
+	
+	private void readRoot(Gervill gervill, ForkJoinPool p, Object root) throws IOException {
+		File file;
+		long fileOffset, length;
+		try {
+			if (gervill.array.invoke(root) != null) {
+				return; // already in memory
+			}
+			file = (File) gervill.getFile.invoke(root);
+			fileOffset = (Long) gervill.getFilePointer.invoke(root);
+			length = (Long) gervill.capacity.invoke(root);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Could not access Gervill sample data", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Could not access Gervill sample data", e.getCause());
+		}
+		if (file == null) {
+			return;
+		}
+		if (length > MAX_ARRAY_SIZE) {
+			throw new IOException("Sample data of " + file + " is too large to load into memory (use MappedSoundbank)");
+		}
+		
+		byte[] data = new byte[(int) length];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ReadChunks task = new ReadChunks(raf.getChannel(), data, fileOffset, 0, data.length, chunkSize);
+			p.invoke(task);
+			if (task.error != null) {
+				throw task.error;
+			}
+		} finally {
+			raf.close();
+		}
+		
+		try {
+			// Root buffers have an offset of 0 into their array
+			gervill.buffer.set(root, data);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Could not set Gervill sample data", e);
+		}
+	}
+	
+	/**
+	 * Reflective access to Gervill's instrument and sample buffer classes.
+	 */
+	private static class Gervill {
+		private static Gervill instance;
+		private static boolean initialized;
+		
+		final Class<?> modelInstrument;
+		final Class<?> byteBufferWavetable;
+		final Method getPerformers;
+		final Method getOscillators;
+		final Method getBuffer;
+		final Method get8BitExtensionBuffer;
+		final Method getRoot;
+		final Method getFile;
+		final Method getFilePointer;
+		final Method capacity;
+		final Method array;
+		final Field buffer;
+		
+		static synchronized Gervill get() {
+			if (!initialized) {
+				try {
+					instance = new Gervill();
+				} catch (Exception e) {
+					// Includes InaccessibleObjectException on Java 9 and later
+					instance = null;
+				}
+				initialized = true;
+			}
+			return instance;
+		}
+		
+		private Gervill() throws Exception {
+			modelInstrument = Class.forName("com.sun.media.sound.ModelInstrument");
+			byteBufferWavetable = Class.forName("com.sun.media.sound.ModelByteBufferWavetable");
+			Class<?> performer = Class.forName("com.sun.media.sound.ModelPerformer");
+			Class<?> byteBuffer = Class.forName("com.sun.media.sound.ModelByteBuffer");
+			getPerformers = accessible(modelInstrument.getMethod("getPerformers"));
+			getOscillators = accessible(performer.getMethod("getOscillators"));
+			getBuffer = accessible(byteBufferWavetable.getMethod("getBuffer"));
+			get8BitExtensionBuffer = accessible(byteBufferWavetable.getMethod("get8BitExtensionBuffer"));
+			getRoot = accessible(byteBuffer.getMethod("getRoot"));
+			getFile = accessible(byteBuffer.getMethod("getFile"));
+			getFilePointer = accessible(byteBuffer.getMethod("getFilePointer"));
+			capacity = accessible(byteBuffer.getMethod("capacity"));
+			array = accessible(byteBuffer.getMethod("array"));
+			buffer = byteBuffer.getDeclaredField("buffer");
+			buffer.setAccessible(true);
+		}
+		
+		private static Method accessible(Method m) {
+			m.setAccessible(true);
+			return m;
+		}
+	}
+	
+	/**
+	 * Finds the root sample buffers of a range of instruments,
+	 * splitting the range in half until it is small enough.
+	 */
+	private static class FindBuffers extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Gervill gervill;
+		private final Instrument[] instruments;
+		private final int start, end;
+		private final Set<Object> roots;
+		
+		FindBuffers(Gervill gervill, Instrument[] instruments, int start, int end, Set<Object> roots) {
+			this.gervill = gervill;
+			this.instruments = instruments;
+			this.start = start;
+			this.end = end;
+			this.roots = roots;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > 4) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new FindBuffers(gervill, instruments, start, mid, roots),
+						new FindBuffers(gervill, instruments, mid, end, roots));
+				return;
+			}
+			
+			List<Object> found = new ArrayList<Object>();
+			try {
+				for (int i = start; i < end; i++) {
+					if (!gervill.modelInstrument.isInstance(instruments[i])) {
+						continue;
+					}
+					for (Object performer : (Object[]) gervill.getPerformers.invoke(instruments[i])) {
+						for (Object osc : (List<?>) gervill.getOscillators.invoke(performer)) {
+							if (gervill.byteBufferWavetable.isInstance(osc)) {
+								addRoot(found, gervill.getBuffer.invoke(osc));
+								addRoot(found, gervill.get8BitExtensionBuffer.invoke(osc));
+							}
+						}
+					}
+				}
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException("Could not access Gervill instrument", e);
+			} catch (InvocationTargetException e) {
+				throw new RuntimeException("Could not access Gervill instrument", e.getCause());
+			}
+			synchronized (roots) {
+				roots.addAll(found);
+			}
+		}
+		
+		private void addRoot(List<Object> found, Object buf) throws IllegalAccessException, InvocationTargetException {
+			if (buf != null) {
+				found.add(gervill.getRoot.invoke(buf));
+			}
+		}
+	}
+	
+	/**
+	 * Reads a range of a file into an array, splitting the
+	 * range in half until it is no larger than one chunk.
+	 */
+	private static class ReadChunks extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final FileChannel channel;
+		private final byte[] data;
+		private final long fileOffset;
+		private final int start, end;
+		private final int chunkSize;
+		volatile IOException error;
+		
+		ReadChunks(FileChannel channel, byte[] data, long fileOffset, int start, int end, int chunkSize) {
+			this.channel = channel;
+			this.data = data;
+			this.fileOffset = fileOffset;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > chunkSize) {
+				int mid = start + (((end - start) / 2 + chunkSize - 1) / chunkSize) * chunkSize;
+				ReadChunks left = new ReadChunks(channel, data, fileOffset, start, mid, chunkSize);
+				ReadChunks right = new ReadChunks(channel, data, fileOffset, mid, end, chunkSize);
+				invokeAll(left, right);
+				error = left.error != null ? left.error : right.error;
+				return;
+			}
+			
+			// Positional reads don't change the channel's position,
+			// so any number of tasks can read from the channel at once
+			try {
+				ByteBuffer buf = ByteBuffer.wrap(data, start, end - start);
+				while (buf.hasRemaining()) {
+					int n = channel.read(buf, fileOffset + buf.position());
+					if (n < 0) {
+						throw new IOException("Unexpected end of soundbank file");
+					}
+				}
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+}
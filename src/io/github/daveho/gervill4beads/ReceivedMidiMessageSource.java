@@ -21,16 +21,14 @@
 
 package io.github.daveho.gervill4beads;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Arrays;
 
+import javax.management.ObjectName;
 import javax.sound.midi.MidiMessage;
 import javax.sound.midi.Receiver;
 
 import net.beadsproject.beads.core.AudioContext;
 import net.beadsproject.beads.core.Bead;
-import net.beadsproject.beads.core.BeadArray;
 
 /**
  * Implementation of {@link MidiMessageSource} that implements the midi
@@ -39,7 +37,9 @@ import net.beadsproject.beads.core.BeadArray;
  * AudioContext's timing information.  In general, all messages
  * will be delivered to recipient Beads just before the audio frame
  * in which the message occurs (by default, immediately before the
- * frame).  Use {@link #addMessageListener(Bead)} to add recipient Beads.
+ * frame).  Use {@link #addMessageListener(Bead)} to add recipient Beads
+ * which receive one message per MidiMessage, or {@link #addBatchListener(Bead)}
+ * to add recipient Beads which receive one {@link MidiEventBatch} per frame.
  * 
  * @author David Hovemeyer
  */
@@ -51,14 +51,32 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 	 */
 	public static int DEFAULT_NUM_DELAY_FRAMES = 1;
 	
+	/**
+	 * By default, at most this many received MidiMessages can be
+	 * waiting for delivery.
+	 */
+	public static int DEFAULT_QUEUE_CAPACITY = 4096;
+	
 	private AudioContext ac;
-	private BeadArray listeners;
+	private volatile Bead[] listeners;
+	private volatile Bead[] batchListeners;
 	private double msPerFrame;
 	private int numDelayFrames;
-	private volatile long frameRtStartNanos;
+	private AudioClockEstimator clock;
 	private volatile double frameTimestampMs;
-	private ConcurrentSkipListMap<Long, MidiMessage> received;
+	private volatile AdaptiveDelay adaptiveDelay;
+	private volatile long lateMessages;
+	private volatile MidiSourceStats stats;
+	private ObjectName statsName;
+	private MidiEventQueue received;
+	private long[] dispatchTimeStamps;
+	private MidiMessage[] dispatchMessages;
+	private int[] dispatchPacked;
+	private FrameBatch batch;
+	private volatile MidiTransform transform;
 	private MidiMessage message;
+	private int messageIndex;
+	private int packedMessage;
 	private long timestamp;
 	
 	/**
@@ -78,13 +96,35 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 	 *                        frames in the future
 	 */
 	public ReceivedMidiMessageSource(AudioContext ac, int numDelayFrames) {
+		this(ac, numDelayFrames, DEFAULT_QUEUE_CAPACITY, MidiEventQueue.OverflowPolicy.DROP_NEWEST);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param ac              the AudioContext
+	 * @param numDelayFrames  received MidiMessages are assigned timestamps this many
+	 *                        frames in the future
+	 * @param queueCapacity   maximum number of received MidiMessages waiting for delivery
+	 * @param overflowPolicy  what to do with MidiMessages received when the queue is full
+	 */
+	public ReceivedMidiMessageSource(AudioContext ac, int numDelayFrames, int queueCapacity,
+			MidiEventQueue.OverflowPolicy overflowPolicy) {
 		this.ac = ac;
-		this.listeners = new BeadArray();
+		this.listeners = new Bead[0];
+		this.batchListeners = new Bead[0];
 		this.msPerFrame = ac.samplesToMs(ac.getBufferSize());
 		this.numDelayFrames = numDelayFrames;
-		this.frameRtStartNanos = -1L;
+		this.clock = new AudioClockEstimator(msPerFrame);
 		this.frameTimestampMs = 0.0;
-		this.received = new ConcurrentSkipListMap<Long, MidiMessage>();
+		this.received = new MidiEventQueue(queueCapacity, overflowPolicy);
+		
+		// Preallocate the arrays used to collect each frame's messages,
+		// so that dispatching doesn't allocate any memory
+		this.dispatchTimeStamps = new long[received.getCapacity()];
+		this.dispatchMessages = new MidiMessage[received.getCapacity()];
+		this.dispatchPacked = new int[received.getCapacity()];
+		this.batch = new FrameBatch();
 		
 		// Schedule a message before every audio frame: we use this
 		// to compute timestamps for incoming MidiMessages, relative
@@ -96,6 +136,10 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 				frameStart();
 			}
 		});
+		
+		if (Instrumentation.ENABLED_BY_DEFAULT) {
+			enableInstrumentation();
+		}
 	}
 	
 	/**
@@ -106,8 +150,173 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 	 * 
 	 * @param bead a listener Bead to add
 	 */
-	public void addMessageListener(Bead bead) {
-		listeners.add(bead);
+	public synchronized void addMessageListener(Bead bead) {
+		listeners = addBead(listeners, bead);
+	}
+	
+	/**
+	 * Remove a listener Bead.
+	 * 
+	 * @param bead the listener Bead to remove
+	 */
+	public synchronized void removeMessageListener(Bead bead) {
+		listeners = removeBead(listeners, bead);
+	}
+	
+	/**
+	 * Add a batch listener Bead, which will receive a single message
+	 * per audio frame in which at least one MidiMessage is delivered.
+	 * The message Bead implements {@link MidiEventBatch}, and provides
+	 * all of the frame's MidiMessages and timestamps.
+	 * 
+	 * @param bead a batch listener Bead to add
+	 */
+	public synchronized void addBatchListener(Bead bead) {
+		batchListeners = addBead(batchListeners, bead);
+	}
+	
+	/**
+	 * Remove a batch listener Bead.
+	 * 
+	 * @param bead the batch listener Bead to remove
+	 */
+	public synchronized void removeBatchListener(Bead bead) {
+		batchListeners = removeBead(batchListeners, bead);
+	}
+	
+	/**
+	 * Set a {@link MidiTransform} to apply to short messages just before
+	 * they are dispatched to listeners.  Messages the transform drops
+	 * are not dispatched.  Messages the transform modifies are
+	 * only converted back to MidiMessage objects when a listener
+	 * asks for them.
+	 * 
+	 * @param transform the transform, or null for no transform
+	 */
+	public void setTransform(MidiTransform transform) {
+		this.transform = transform;
+	}
+	
+	/**
+	 * Enable instrumentation: collect queue depth, lateness, and dispatch
+	 * time statistics, register them as a JMX MBean, and emit JDK Flight Recorder
+	 * events (if available).  Instrumentation can also be enabled for
+	 * all ReceivedMidiMessageSources by setting the <code>gervill4beads.instrumentation</code>
+	 * system property to true.
+	 * 
+	 * @return the statistics object
+	 */
+	public synchronized MidiSourceStats enableInstrumentation() {
+		if (stats == null) {
+			MidiSourceStats newStats = new MidiSourceStats(this);
+			statsName = Instrumentation.register(newStats, "ReceivedMidiMessageSource");
+			stats = newStats;
+		}
+		return stats;
+	}
+	
+	/**
+	 * Disable instrumentation, and unregister the statistics MBean.
+	 */
+	public synchronized void disableInstrumentation() {
+		if (stats != null) {
+			stats = null;
+			Instrumentation.unregister(statsName);
+			statsName = null;
+		}
+	}
+	
+	/**
+	 * Get the dispatch statistics.
+	 * 
+	 * @return the statistics, or null if instrumentation is not enabled
+	 */
+	public MidiSourceStats getStats() {
+		return stats;
+	}
+	
+	private static Bead[] addBead(Bead[] beads, Bead bead) {
+		Bead[] updated = Arrays.copyOf(beads, beads.length + 1);
+		updated[beads.length] = bead;
+		return updated;
+	}
+	
+	private static Bead[] removeBead(Bead[] beads, Bead bead) {
+		for (int i = 0; i < beads.length; i++) {
+			if (beads[i] == bead) {
+				Bead[] updated = new Bead[beads.length - 1];
+				System.arraycopy(beads, 0, updated, 0, i);
+				System.arraycopy(beads, i + 1, updated, i, beads.length - i - 1);
+				return updated;
+			}
+		}
+		return beads;
+	}
+	
+	/**
+	 * Get the number of received MidiMessages which were dropped
+	 * because the queue of messages waiting for delivery was full.
+	 * 
+	 * @return number of dropped MidiMessages
+	 */
+	public long getDroppedMessageCount() {
+		return received.getDroppedCount();
+	}
+	
+	/**
+	 * Get the estimator used to map the real time at which realtime
+	 * messages are received to AudioContext time.  It can be used to
+	 * monitor the estimated jitter and drift of the audio clock.
+	 * 
+	 * @return the AudioClockEstimator
+	 */
+	public AudioClockEstimator getClockEstimator() {
+		return clock;
+	}
+	
+	/**
+	 * Enable adaptive delay: rather than delaying realtime messages by a fixed
+	 * number of frames, measure how much delay each realtime message needs
+	 * to be delivered before the start of the frame in which it is played,
+	 * and continuously adjust the delay so that the given percentage
+	 * of messages are on time.  The delay is adjusted in sub-frame
+	 * increments, between 0 and {@link AdaptiveDelay#DEFAULT_MAX_DELAY_FRAMES}
+	 * frames.
+	 * 
+	 * @param targetPercentile percentage of realtime messages which should
+	 *                         be delivered on time (e.g., 99.9)
+	 */
+	public void enableAdaptiveDelay(double targetPercentile) {
+		this.adaptiveDelay = new AdaptiveDelay(msPerFrame, targetPercentile,
+				0.0, AdaptiveDelay.DEFAULT_MAX_DELAY_FRAMES*msPerFrame, numDelayFrames*msPerFrame);
+	}
+	
+	/**
+	 * Disable adaptive delay, so that realtime messages are delayed by
+	 * the fixed number of frames specified when this object was created.
+	 */
+	public void disableAdaptiveDelay() {
+		this.adaptiveDelay = null;
+	}
+	
+	/**
+	 * Get the delay currently applied to realtime messages.
+	 * 
+	 * @return the delay in milliseconds
+	 */
+	public double getEffectiveDelayMs() {
+		AdaptiveDelay ad = adaptiveDelay;
+		return ad != null ? ad.getDelayMs() : numDelayFrames*msPerFrame;
+	}
+	
+	/**
+	 * Get the number of messages which were late: i.e., which were
+	 * delivered in an audio frame starting after the message's timestamp.
+	 * 
+	 * @return the number of late messages
+	 */
+	public long getLateMessageCount() {
+		return lateMessages;
 	}
 
 	@Override
@@ -117,68 +326,158 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 		if (timeStamp < 0L) {
 			// Real-time message!
 			
-			// Offset of this event (occurring right now, in real time)
-			// from the beginning of the frame.
-			long rtOffsetNanos;
+			// Millisecond timestamp of this event (occurring right now,
+			// in real time) in AudioContext time.
+			double timeStampMs;
 			
-			if (frameRtStartNanos < 0L) {
+			if (!clock.isStarted()) {
 				// Audio processing hasn't started.  We'll schedule
 				// this message for processing at the beginning of the
 				// first frame.
-				rtOffsetNanos = 0L;
+				timeStampMs = 0.0;
 			} else {
-				rtOffsetNanos = System.nanoTime() - frameRtStartNanos;
+				// Use the smoothed mapping from real time to AudioContext
+				// time, so that jitter in when the audio thread runs
+				// doesn't become jitter in when the event is played
+				timeStampMs = clock.toAudioTimeMs(System.nanoTime());
 			}
 			
-			// Compute a millisecond timestamp relative to the start of the
-			// current frame
-			double timeStampMs = frameTimestampMs + (rtOffsetNanos/1000000.0);
-			
 			// Midi timestamp is the millisecond timestamp converted to
-			// microseconds, delayed by one or more frames, to avoid any
-			// possibility of an event being scheduled for processing in
-			// current frame.
-			timeStamp = (long) ((timeStampMs + (numDelayFrames*msPerFrame)) * 1000.0);
+			// microseconds, delayed (by default, by one or more frames)
+			// to avoid any possibility of an event being scheduled
+			// for processing in current frame.
+			AdaptiveDelay ad = adaptiveDelay;
+			double delayMs;
+			if (ad != null) {
+				// The message will be delivered at the start of the next
+				// frame, so any delay less than the time until then
+				// would make it late
+				ad.recordRequiredDelay(frameTimestampMs + msPerFrame - timeStampMs);
+				delayMs = ad.getDelayMs();
+			} else {
+				delayMs = numDelayFrames*msPerFrame;
+			}
+			timeStamp = (long) ((timeStampMs + delayMs) * 1000.0);
 		}
 		
-		// Add to received list
-		received.put(timeStamp, message);
+		// Add to received queue
+		offer(message, timeStamp);
+	}
+	
+	// Package-private so that benchmarks can count dropped messages
+	boolean offer(MidiMessage message, long timeStamp) {
+		return received.offer(message, timeStamp);
 	}
 
-	private void frameStart() {
+	// Package-private so that benchmarks can dispatch frames directly
+	void frameStart() {
 		// Update frame start timestamps
 		
+		// AudioContext time in milliseconds.
+		frameTimestampMs = ac.getTime();
+		
 		// Real time start of frame in nanoseconds.
 		// This is for processing realtime messages, so that they
 		// can be assigned a midi timestamp that is synchronized
 		// with the AudioContext.
-		frameRtStartNanos = System.nanoTime();
+		clock.frameStart(frameTimestampMs, System.nanoTime());
 		
-		// AudioContext time in milliseconds.
-		frameTimestampMs = ac.getTime();
-
-		// Collect all of the messages which should be processed
-		// in this audio frame
-		List<MidiMessageAndTimeStamp> toProcess = new ArrayList<MidiMessageAndTimeStamp>();
+		AdaptiveDelay ad = adaptiveDelay;
+		if (ad != null) {
+			ad.update();
+		}
 
+		// Microsecond timestamp of start of current audio frame.
+		// Messages with earlier timestamps are late.
+		double startOfFrameUs = frameTimestampMs * 1000.0;
+		
 		// Microsecond timestamp of end of current audio frame.
 		// Only midi messages whose timestamps are earlier than the end
 		// of this frame are scheduled for delivery.
 		double endOfFrameUs = (frameTimestampMs + msPerFrame) * 1000.0;
 
 		// Schedule all MidiMessages whose timestamps indicate this frame
-		// for dispatching to listeners
-		Long ts;
-		while (!received.isEmpty() && (ts = received.firstKey()) < endOfFrameUs) {
-			MidiMessage value = received.remove(ts);
-			toProcess.add(new MidiMessageAndTimeStamp(value, ts));
+		// for dispatching to listeners (in timestamp order, with messages
+		// having the same timestamp in the order they were received).
+		// Messages are collected into preallocated arrays (rather than
+		// delivered as they are polled) so that messages sent by
+		// listeners during dispatch are handled in a later frame.
+		received.transferPending();
+		MidiSourceStats st = stats;
+		int pending = received.getPendingCount();
+		long dispatchStart = st != null ? st.dispatchStart(pending) : 0L;
+		MidiTransform xform = transform;
+		int count = 0;
+		long late = 0L;
+		while (received.pollBefore(endOfFrameUs)) {
+			MidiMessage msg = received.getPolledMessage();
+			if (received.getPolledTimeStamp() < startOfFrameUs) {
+				late++;
+			}
+			if (st != null) {
+				st.messageDispatched((long) (startOfFrameUs - received.getPolledTimeStamp()));
+			}
+			int packed = Midi.pack(msg);
+			if (xform != null && packed != 0) {
+				int transformed = xform.transform(packed);
+				if (transformed == 0) {
+					// Dropped by transform
+					continue;
+				}
+				if (transformed != packed) {
+					// The original MidiMessage no longer matches: a ShortMessage
+					// will be created from the packed message if needed
+					msg = null;
+					packed = transformed;
+				}
+			}
+			dispatchTimeStamps[count] = received.getPolledTimeStamp();
+			dispatchMessages[count] = msg;
+			dispatchPacked[count] = packed;
+			count++;
+		}
+		if (late > 0L) {
+			lateMessages += late;
+		}
+		if (count == 0) {
+			if (st != null) {
+				st.dispatchEnd(dispatchStart, 0, pending);
+			}
+			return;
 		}
 		
 		// Notify listeners for each received message/timestamp
-		for (MidiMessageAndTimeStamp msgAndTs : toProcess) {
-			message = msgAndTs.msg;
-			timestamp = msgAndTs.timeStamp;
-			listeners.messageReceived(this);
+		Bead[] recipients = listeners;
+		for (int i = 0; i < count; i++) {
+			message = dispatchMessages[i];
+			messageIndex = i;
+			packedMessage = dispatchPacked[i];
+			timestamp = dispatchTimeStamps[i];
+			for (Bead recipient : recipients) {
+				if (recipient.isDeleted()) {
+					removeMessageListener(recipient);
+				} else {
+					recipient.message(this);
+				}
+			}
+		}
+		
+		// Notify batch listeners once for the entire frame
+		batch.count = count;
+		for (Bead recipient : batchListeners) {
+			if (recipient.isDeleted()) {
+				removeBatchListener(recipient);
+			} else {
+				recipient.message(batch);
+			}
+		}
+		batch.count = 0;
+		
+		// Don't retain references to delivered messages
+		Arrays.fill(dispatchMessages, 0, count, null);
+		
+		if (st != null) {
+			st.dispatchEnd(dispatchStart, count, pending);
 		}
 	}
 	
@@ -187,8 +486,26 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 	 */
 	@Override
 	public MidiMessage getMessage() {
+		if (message == null) {
+			// Message was modified by the transform: keep the ShortMessage
+			// for the rest of the frame, so that other listeners and
+			// batch listeners don't have to create it again
+			message = Midi.toShortMessage(packedMessage);
+			dispatchMessages[messageIndex] = message;
+		}
 		return message;
 	}
+	
+	/**
+	 * Get the received message as a packed short message
+	 * (see {@link Midi#pack(MidiMessage)}).
+	 * 
+	 * @return the packed short message, or 0 if the received message
+	 *         is not a short message
+	 */
+	public int getPackedMessage() {
+		return packedMessage;
+	}
 
 	/* (non-Javadoc)
 	 * @see io.github.daveho.gervill4beads.MidiMessageSource#getTimeStamp()
@@ -202,5 +519,31 @@ public class ReceivedMidiMessageSource extends Bead implements Receiver, MidiMes
 	public void close() {
 		// Nothing to do at the moment
 	}
+	
+	// The Bead delivered to batch listeners.  Its arrays are
+	// the source's preallocated dispatch arrays.
+	private class FrameBatch extends Bead implements MidiEventBatch {
+		private int count;
+		
+		@Override
+		public int getEventCount() {
+			return count;
+		}
+		
+		@Override
+		public long[] getTimeStamps() {
+			return dispatchTimeStamps;
+		}
+		
+		@Override
+		public int[] getPackedMessages() {
+			return dispatchPacked;
+		}
+		
+		@Override
+		public MidiMessage[] getMessages() {
+			return dispatchMessages;
+		}
+	}
 
 }
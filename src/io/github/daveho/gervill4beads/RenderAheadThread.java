@@ -0,0 +1,183 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread which renders audio from a Gervill synthesizer ahead of
+ * time into a {@link AudioRingBuffer}, so that the audio thread
+ * only needs to copy the rendered audio.  Used by {@link GervillUGen}
+ * in render-ahead mode.
+ * 
+ * <p>The k'th frame rendered by the synthesizer is always delivered
+ * as the k'th frame of output: if the audio thread finds that not enough
+ * frames have been rendered (an underrun), it outputs silence, and
+ * the missing frames are discarded once they are rendered.
+ * This keeps the synthesizer's clock aligned with the AudioContext's.
+ * 
+ * @author David Hovemeyer
+ */
+class RenderAheadThread extends Thread {
+	private final GervillUGen ugen;
+	private final int chunkFrames;
+	private final long periodNanos;
+	private final AudioRingBuffer ring;
+	private final float[][] chunk;
+	private volatile boolean shutdown;
+	private volatile IOException error;
+	private volatile long underruns;
+	private volatile long overruns;
+	
+	// Only accessed by the audio thread
+	private boolean primed;
+	private long skipFrames;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param ugen         the GervillUGen whose synthesizer should be rendered
+	 * @param channels     the number of channels
+	 * @param chunkFrames  number of frames to render at a time
+	 * @param leadFrames   maximum number of frames to render ahead of the audio thread
+	 * @param periodMs     duration of one chunk in milliseconds
+	 */
+	public RenderAheadThread(GervillUGen ugen, int channels, int chunkFrames, int leadFrames, double periodMs) {
+		super("Gervill render-ahead");
+		setDaemon(true);
+		setPriority(Thread.MAX_PRIORITY);
+		this.ugen = ugen;
+		this.chunkFrames = chunkFrames;
+		this.periodNanos = (long) (periodMs * 1000000.0);
+		this.ring = new AudioRingBuffer(channels, leadFrames);
+		this.chunk = new float[channels][chunkFrames];
+	}
+	
+	/**
+	 * @return number of times the audio thread found fewer frames available than it needed
+	 */
+	public long getUnderrunCount() {
+		return underruns;
+	}
+	
+	/**
+	 * @return number of times the ring buffer stayed full for longer than
+	 *         a chunk period, i.e., the audio thread stopped consuming audio
+	 */
+	public long getOverrunCount() {
+		return overruns;
+	}
+	
+	/**
+	 * Stop the thread and wait for it to finish.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		LockSupport.unpark(this);
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void run() {
+		try {
+			while (!shutdown) {
+				// Wait for room for a chunk
+				long waitStart = 0L;
+				boolean overrun = false;
+				while (!shutdown && ring.getWriteAvailable() < chunkFrames) {
+					if (waitStart == 0L) {
+						waitStart = System.nanoTime();
+					} else if (!overrun && System.nanoTime() - waitStart > periodNanos) {
+						overrun = true;
+						overruns++;
+					}
+					LockSupport.parkNanos(this, periodNanos / 4);
+				}
+				if (shutdown) {
+					break;
+				}
+				
+				GervillUGenStats st = ugen.getStats();
+				long renderStart = st != null ? st.renderStart() : 0L;
+				RenderGovernor gov = ugen.getGovernor();
+				long govStart = gov != null ? System.nanoTime() : 0L;
+				ugen.readFromSynth(chunk, chunkFrames, 0L);
+				if (st != null) {
+					st.renderEnd(renderStart, chunkFrames);
+				}
+				if (gov != null) {
+					gov.bufferRendered(System.nanoTime() - govStart, chunkFrames);
+				}
+				ring.write(chunk, 0, chunkFrames);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+	
+	/**
+	 * Copy rendered audio into the audio thread's output buffers.
+	 * Called by the audio thread.
+	 * 
+	 * @param bufOut  output buffers, one per channel
+	 * @param frames  number of frames needed
+	 * @throws IOException if the render thread could not read from the synthesizer
+	 */
+	public void read(float[][] bufOut, int frames) throws IOException {
+		if (error != null) {
+			throw error;
+		}
+		
+		// Discard frames which were replaced by silence in earlier underruns
+		while (skipFrames > 0L) {
+			int n = ring.skip((int) Math.min(skipFrames, Integer.MAX_VALUE));
+			if (n == 0) {
+				break;
+			}
+			skipFrames -= n;
+		}
+		
+		int n = skipFrames > 0L ? 0 : ring.read(bufOut, 0, frames);
+		LockSupport.unpark(this);
+		if (n < frames) {
+			for (int ch = 0; ch < bufOut.length; ch++) {
+				for (int i = n; i < frames; i++) {
+					bufOut[ch][i] = 0.0f;
+				}
+			}
+			skipFrames += frames - n;
+			// Before the ring buffer is first filled, missing frames
+			// are expected and are not counted as underruns
+			if (primed) {
+				underruns++;
+			}
+		}
+		if (!primed && ring.getWriteAvailable() < chunkFrames) {
+			primed = true;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.Arrays;
+
+import net.beadsproject.beads.core.Bead;
+
+/**
+ * Keeps a {@link GervillUGen} within its CPU budget by trading
+ * audio quality for render time.  The governor measures how long
+ * each buffer takes to render, relative to the buffer's duration
+ * (the deadline for rendering it).  When the peak load during a window
+ * of buffers exceeds the high water mark, or a single buffer misses its
+ * deadline, the governor degrades quality by one level; once the peak
+ * load has stayed below the low water mark for the restore time, it
+ * restores quality by one level.  The gap between the two marks, and
+ * the restore time, keep the governor from oscillating between levels.
+ * 
+ * <p>Quality levels, from level 0 (the synthesizer's own settings)
+ * to {@link #MAX_LEVEL}:
+ * <ol start="0">
+ * <li>full polyphony, configured interpolation, reverb and chorus</li>
+ * <li>75% polyphony</li>
+ * <li>75% polyphony, at most linear interpolation</li>
+ * <li>50% polyphony, at most linear interpolation, no reverb or chorus</li>
+ * <li>25% polyphony, point interpolation, no reverb or chorus</li>
+ * </ol>
+ * 
+ * <p>The polyphony limit is enforced by dropping note-on messages
+ * sent through {@link GervillUGen#send(javax.sound.midi.MidiMessage, long)} while the
+ * limit is reached: voices which are already playing are never cut off.
+ * Interpolation changes only affect notes started after the change.
+ * Changing the interpolation and effects requires reflective access to
+ * Gervill's internals: if that isn't possible, only the polyphony
+ * limit is applied.
+ * 
+ * <p>Beads added using {@link #addChangeListener(Bead)} receive a
+ * message (with this governor as the message) on the audio thread
+ * whenever the level changes.
+ * 
+ * @author David Hovemeyer
+ */
+public class RenderGovernor extends Bead {
+	/**
+	 * Default high water mark: the fraction of a buffer's duration which,
+	 * if exceeded by the render time, causes quality to be degraded.
+	 */
+	public static double DEFAULT_HIGH_LOAD = 0.8;
+	
+	/**
+	 * Default low water mark: the fraction of a buffer's duration which
+	 * the render time must stay below for quality to be restored.
+	 */
+	public static double DEFAULT_LOW_LOAD = 0.5;
+	
+	/**
+	 * Default window (in milliseconds) over which the peak load is measured.
+	 */
+	public static double DEFAULT_WINDOW_MS = 100.0;
+	
+	/**
+	 * Default restore time (in milliseconds): how long the load must stay
+	 * below the low water mark before quality is restored by one level.
+	 */
+	public static double DEFAULT_RESTORE_MS = 2000.0;
+	
+	/**
+	 * The lowest quality level.
+	 */
+	public static final int MAX_LEVEL = 4;
+	
+	// Settings for each level
+	private static final float[] POLYPHONY = { 1.0f, 0.75f, 0.75f, 0.5f, 0.25f };
+	private static final int[] MAX_INTERPOLATION = { 4, 4, 1, 1, 0 };
+	private static final boolean[] EFFECTS = { true, true, true, false, false };
+	
+	private final SynthControl control;
+	private final int maxPolyphony;
+	private final double frameNanos;
+	private final int windowBuffers;
+	private final double windowMs;
+	private volatile double highLoad;
+	private volatile double lowLoad;
+	private volatile int restoreWindows;
+	private volatile Bead[] listeners;
+	
+	// Measurement state, only accessed by the rendering thread
+	private int windowCount;
+	private double windowPeak;
+	private int quietWindows;
+	private int buffersSinceChange;
+	
+	private volatile int level;
+	private volatile int polyphonyLimit;
+	private volatile double lastPeakLoad;
+	private volatile long droppedNotes;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param ugen     the GervillUGen to govern
+	 * @param control  the SynthControl for the GervillUGen's synthesizer
+	 */
+	RenderGovernor(GervillUGen ugen, SynthControl control) {
+		this.control = control;
+		this.maxPolyphony = ugen.getSynth().getMaxPolyphony();
+		double bufferMs = ugen.getContext().samplesToMs(ugen.getContext().getBufferSize());
+		this.frameNanos = bufferMs * 1000000.0 / ugen.getContext().getBufferSize();
+		this.windowBuffers = Math.max(1, (int) Math.ceil(DEFAULT_WINDOW_MS / bufferMs));
+		this.windowMs = bufferMs * windowBuffers;
+		this.highLoad = DEFAULT_HIGH_LOAD;
+		this.lowLoad = DEFAULT_LOW_LOAD;
+		setRestoreTimeMs(DEFAULT_RESTORE_MS);
+		this.listeners = new Bead[0];
+		this.polyphonyLimit = maxPolyphony;
+	}
+	
+	/**
+	 * Set the high and low water marks, as fractions of a buffer's duration.
+	 * 
+	 * @param lowLoad   quality is restored once the peak load stays below this
+	 * @param highLoad  quality is degraded when the peak load exceeds this
+	 */
+	public void setThresholds(double lowLoad, double highLoad) {
+		if (lowLoad <= 0.0 || lowLoad >= highLoad) {
+			throw new IllegalArgumentException("Low water mark must be positive and less than the high water mark");
+		}
+		this.lowLoad = lowLoad;
+		this.highLoad = highLoad;
+	}
+	
+	/**
+	 * Set the restore time: how long the peak load must stay below
+	 * the low water mark before quality is restored by one level.
+	 * 
+	 * @param restoreMs the restore time in milliseconds
+	 */
+	public void setRestoreTimeMs(double restoreMs) {
+		this.restoreWindows = Math.max(1, (int) Math.ceil(restoreMs / windowMs));
+	}
+	
+	/**
+	 * Add a listener Bead, which will receive a message (with this governor
+	 * as the message) whenever the quality level changes.
+	 * 
+	 * @param bead a listener Bead to add
+	 */
+	public synchronized void addChangeListener(Bead bead) {
+		Bead[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+		updated[listeners.length] = bead;
+		listeners = updated;
+	}
+	
+	/**
+	 * Remove a listener Bead.
+	 * 
+	 * @param bead the listener Bead to remove
+	 */
+	public synchronized void removeChangeListener(Bead bead) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == bead) {
+				Bead[] updated = new Bead[listeners.length - 1];
+				System.arraycopy(listeners, 0, updated, 0, i);
+				System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+				listeners = updated;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Get the current quality level.
+	 * 
+	 * @return the quality level: 0 for full quality, up to {@link #MAX_LEVEL}
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * Get the current polyphony limit.
+	 * 
+	 * @return maximum number of active voices at which note-ons are accepted
+	 */
+	public int getPolyphonyLimit() {
+		return polyphonyLimit;
+	}
+	
+	/**
+	 * Get the current interpolation type.
+	 * 
+	 * @return the interpolation type ("point", "linear", "cubic", "lanczos", or "sinc")
+	 */
+	public String getInterpolation() {
+		return SynthControl.INTERPOLATIONS[interpolationForLevel(level)];
+	}
+	
+	/**
+	 * Check whether reverb and chorus are enabled at the current level.
+	 * 
+	 * @return true if effects are enabled
+	 */
+	public boolean isEffectsEnabled() {
+		return EFFECTS[level];
+	}
+	
+	/**
+	 * Get the peak load during the most recent window: the highest render time
+	 * of any buffer, as a fraction of the buffer's duration.
+	 * 
+	 * @return the peak load
+	 */
+	public double getPeakLoad() {
+		return lastPeakLoad;
+	}
+	
+	/**
+	 * Get the number of note-on messages dropped because
+	 * the polyphony limit was reached.
+	 * 
+	 * @return number of dropped note-ons
+	 */
+	public long getDroppedNoteCount() {
+		return droppedNotes;
+	}
+	
+	/**
+	 * Called by the rendering thread after each buffer is rendered.
+	 * The load is the render time relative to the duration of the
+	 * rendered frames, which may be more than one buffer (e.g., a render quantum).
+	 * 
+	 * @param renderNanos  time taken to render the buffer, in nanoseconds
+	 * @param frames       number of frames rendered
+	 */
+	void bufferRendered(long renderNanos, int frames) {
+		double load = renderNanos / (frames * frameNanos);
+		if (load > windowPeak) {
+			windowPeak = load;
+		}
+		buffersSinceChange++;
+		
+		if (load >= 1.0 && buffersSinceChange >= windowBuffers && level < MAX_LEVEL) {
+			// Missed the deadline: degrade right away rather than
+			// waiting for the end of the window, but give the previous
+			// change at least one window to take effect
+			endWindow();
+			changeLevel(level + 1);
+			return;
+		}
+		
+		if (++windowCount < windowBuffers) {
+			return;
+		}
+		double peak = windowPeak;
+		endWindow();
+		if (peak > highLoad) {
+			quietWindows = 0;
+			if (level < MAX_LEVEL) {
+				changeLevel(level + 1);
+			}
+		} else if (peak < lowLoad && level > 0) {
+			if (++quietWindows >= restoreWindows) {
+				quietWindows = 0;
+				changeLevel(level - 1);
+			}
+		} else {
+			quietWindows = 0;
+		}
+		
+		// Voices which were playing when the interpolation changed
+		// get the new interpolation once they finish
+		control.updateVoices();
+	}
+	
+	/**
+	 * Check whether a note-on should be accepted, given the
+	 * current polyphony limit.  Dropped note-ons are counted.
+	 * 
+	 * @return true if the note-on should be sent to the synthesizer
+	 */
+	boolean allowNoteOn() {
+		int limit = polyphonyLimit;
+		if (limit >= maxPolyphony || control.countActiveVoices() < limit) {
+			return true;
+		}
+		droppedNotes++;
+		return false;
+	}
+	
+	/**
+	 * Restore full quality.
+	 */
+	void reset() {
+		endWindow();
+		quietWindows = 0;
+		if (level != 0) {
+			changeLevel(0);
+		}
+	}
+	
+	private void endWindow() {
+		lastPeakLoad = windowPeak;
+		windowPeak = 0.0;
+		windowCount = 0;
+	}
+	
+	private int interpolationForLevel(int level) {
+		return Math.min(control.getInitialInterpolation(), MAX_INTERPOLATION[level]);
+	}
+	
+	private void changeLevel(int newLevel) {
+		level = newLevel;
+		buffersSinceChange = 0;
+		polyphonyLimit = Math.max(1, (int) (maxPolyphony * POLYPHONY[newLevel]));
+		control.setInterpolation(interpolationForLevel(newLevel));
+		control.setEffectsEnabled(EFFECTS[newLevel]);
+		
+		for (Bead recipient : listeners) {
+			if (recipient.isDeleted()) {
+				removeChangeListener(recipient);
+			} else {
+				recipient.message(this);
+			}
+		}
+	}
+}
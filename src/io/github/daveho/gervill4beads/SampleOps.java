@@ -0,0 +1,99 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+/**
+ * Bulk operations on buffers of samples, used to copy audio from
+ * Gervill into a UGen's output buffers while applying a gain.
+ * Each operation is a single pass over the samples, with simple
+ * loops that the JIT compiler can unroll and vectorize.  A gain can be
+ * ramped linearly over the samples (by specifying a nonzero delta),
+ * to avoid clicks when it changes.
+ * 
+ * @author David Hovemeyer
+ */
+class SampleOps {
+	private SampleOps() {
+	}
+	
+	/**
+	 * Copy samples, applying a gain.
+	 * 
+	 * @param src     source array
+	 * @param srcPos  index of first sample in source array
+	 * @param dst     destination array
+	 * @param dstPos  index of first sample in destination array
+	 * @param n       number of samples to copy
+	 * @param gain    gain applied to the first sample
+	 * @param delta   amount added to the gain for each subsequent sample
+	 */
+	static void copy(float[] src, int srcPos, float[] dst, int dstPos, int n, float gain, float delta) {
+		if (delta == 0.0f) {
+			if (gain == 1.0f) {
+				System.arraycopy(src, srcPos, dst, dstPos, n);
+			} else {
+				for (int i = 0; i < n; i++) {
+					dst[dstPos + i] = src[srcPos + i] * gain;
+				}
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				dst[dstPos + i] = src[srcPos + i] * (gain + i * delta);
+			}
+		}
+	}
+	
+	/**
+	 * Split interleaved stereo samples into left and right channel
+	 * buffers, applying a gain to each channel.
+	 * 
+	 * @param src        interleaved samples
+	 * @param left       left channel buffer
+	 * @param right      right channel buffer
+	 * @param frames     number of frames
+	 * @param leftGain   gain applied to the first left sample
+	 * @param leftDelta  amount added to the left gain for each subsequent sample
+	 * @param rightGain  gain applied to the first right sample
+	 * @param rightDelta amount added to the right gain for each subsequent sample
+	 */
+	static void deinterleave(float[] src, float[] left, float[] right, int frames,
+			float leftGain, float leftDelta, float rightGain, float rightDelta) {
+		if (leftDelta == 0.0f && rightDelta == 0.0f) {
+			if (leftGain == 1.0f && rightGain == 1.0f) {
+				for (int i = 0; i < frames; i++) {
+					left[i] = src[2*i];
+					right[i] = src[2*i + 1];
+				}
+			} else {
+				for (int i = 0; i < frames; i++) {
+					left[i] = src[2*i] * leftGain;
+					right[i] = src[2*i + 1] * rightGain;
+				}
+			}
+		} else {
+			for (int i = 0; i < frames; i++) {
+				left[i] = src[2*i] * (leftGain + i * leftDelta);
+				right[i] = src[2*i + 1] * (rightGain + i * rightDelta);
+			}
+		}
+	}
+}
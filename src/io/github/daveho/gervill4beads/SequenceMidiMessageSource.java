@@ -0,0 +1,215 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+
+/**
+ * Implementation of {@link MidiMessageSource} that plays a midi
+ * <code>Sequence</code> (e.g., loaded from a Standard MIDI File).
+ * The sequence's ticks are converted to microsecond timestamps
+ * (following the sequence's tempo changes) relative to AudioContext
+ * time 0, and each message is delivered to recipient Beads just before
+ * the audio frame in which it occurs.  Since the timestamps are exact,
+ * a {@link GervillUGen} receiving the messages can start notes at the
+ * exact sample they occur.  Meta messages (tempo changes, track names, etc.)
+ * are not delivered.  Use {@link #addMessageListener(Bead)} to add
+ * recipient Beads.
+ * 
+ * @author David Hovemeyer
+ */
+public class SequenceMidiMessageSource extends Bead implements MidiMessageSource {
+	private static final int META_TEMPO = 0x51;
+	private static final int DEFAULT_TEMPO_US_PER_QUARTER = 500000;
+	
+	private AudioContext ac;
+	private double msPerFrame;
+	private volatile Bead[] listeners;
+	private long[] timeStamps;
+	private MidiMessage[] messages;
+	private long lengthUs;
+	private int next;
+	private MidiMessage message;
+	private long timestamp;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param ac        the AudioContext
+	 * @param sequence  the Sequence to play
+	 */
+	public SequenceMidiMessageSource(AudioContext ac, Sequence sequence) {
+		this.ac = ac;
+		this.msPerFrame = ac.samplesToMs(ac.getBufferSize());
+		this.listeners = new Bead[0];
+		convertSequence(sequence);
+		this.next = 0;
+		
+		// Schedule a message before every audio frame: we use this
+		// to dispatch messages to listeners.
+		ac.invokeBeforeEveryFrame(new Bead() {
+			@Override
+			protected void messageReceived(Bead message) {
+				frameStart();
+			}
+		});
+	}
+	
+	private static class TickAndMessage {
+		final long tick;
+		final MidiMessage msg;
+		
+		TickAndMessage(long tick, MidiMessage msg) {
+			this.tick = tick;
+			this.msg = msg;
+		}
+	}
+
+	private void convertSequence(Sequence sequence) {
+		// Merge all tracks, ordered by tick.  The sort is stable,
+		// so events with the same tick stay in track order.
+		List<TickAndMessage> events = new ArrayList<TickAndMessage>();
+		for (Track track : sequence.getTracks()) {
+			for (int i = 0; i < track.size(); i++) {
+				MidiEvent event = track.get(i);
+				events.add(new TickAndMessage(event.getTick(), event.getMessage()));
+			}
+		}
+		Collections.sort(events, new Comparator<TickAndMessage>() {
+			@Override
+			public int compare(TickAndMessage o1, TickAndMessage o2) {
+				return o1.tick < o2.tick ? -1 : (o1.tick > o2.tick ? 1 : 0);
+			}
+		});
+		
+		// Convert ticks to microseconds
+		boolean ppq = sequence.getDivisionType() == Sequence.PPQ;
+		double resolution = sequence.getResolution();
+		double usPerTick = ppq
+				? DEFAULT_TEMPO_US_PER_QUARTER / resolution
+				: 1000000.0 / (sequence.getDivisionType() * resolution);
+		long lastTick = 0L;
+		double lastUs = 0.0;
+		
+		timeStamps = new long[events.size()];
+		messages = new MidiMessage[events.size()];
+		int count = 0;
+		for (TickAndMessage event : events) {
+			double us = lastUs + (event.tick - lastTick) * usPerTick;
+			lastTick = event.tick;
+			lastUs = us;
+			
+			if (event.msg instanceof MetaMessage) {
+				MetaMessage meta = (MetaMessage) event.msg;
+				byte[] data = meta.getData();
+				if (ppq && meta.getType() == META_TEMPO && data.length >= 3) {
+					int usPerQuarter = ((data[0] & 0xff) << 16) | ((data[1] & 0xff) << 8) | (data[2] & 0xff);
+					usPerTick = usPerQuarter / resolution;
+				}
+				continue;
+			}
+			
+			timeStamps[count] = (long) us;
+			messages[count] = event.msg;
+			count++;
+		}
+		timeStamps = Arrays.copyOf(timeStamps, count);
+		messages = Arrays.copyOf(messages, count);
+		lengthUs = (long) lastUs;
+	}
+	
+	/**
+	 * Add a listener Bead, which will receive a message (with this Bead as
+	 * the message) when a MidiMessage is played.  The recipient can
+	 * invoke the {@link #getMessage()} and {@link #getTimeStamp()}
+	 * methods to get the midi message data.
+	 * 
+	 * @param bead a listener Bead to add
+	 */
+	public synchronized void addMessageListener(Bead bead) {
+		Bead[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+		updated[listeners.length] = bead;
+		listeners = updated;
+	}
+	
+	/**
+	 * Get the length of the sequence (i.e., the timestamp of its last event).
+	 * 
+	 * @return length of the sequence in microseconds
+	 */
+	public long getLengthUs() {
+		return lengthUs;
+	}
+	
+	/**
+	 * Check whether all of the sequence's messages have been delivered.
+	 * 
+	 * @return true if all of the sequence's messages have been delivered
+	 */
+	public boolean isFinished() {
+		return next >= messages.length;
+	}
+	
+	private void frameStart() {
+		// Deliver all messages whose timestamps are earlier than the
+		// end of the current frame
+		double endOfFrameUs = (ac.getTime() + msPerFrame) * 1000.0;
+		Bead[] recipients = listeners;
+		while (next < messages.length && timeStamps[next] < endOfFrameUs) {
+			message = messages[next];
+			timestamp = timeStamps[next];
+			next++;
+			for (Bead recipient : recipients) {
+				recipient.message(this);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see io.github.daveho.gervill4beads.MidiMessageSource#getMessage()
+	 */
+	@Override
+	public MidiMessage getMessage() {
+		return message;
+	}
+
+	/* (non-Javadoc)
+	 * @see io.github.daveho.gervill4beads.MidiMessageSource#getTimeStamp()
+	 */
+	@Override
+	public long getTimeStamp() {
+		return timestamp;
+	}
+}
@@ -0,0 +1,323 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Soundbank;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.UGen;
+
+/**
+ * A UGen that generates audio using several
+ * <a href="https://java.net/projects/gervill/pages/Home">Gervill</a>
+ * software synthesizers (shards), rendered in parallel.
+ * Each midi channel is assigned to one shard, and all of that channel's
+ * messages (notes, program changes, controllers, etc.) are sent to that
+ * shard.  System messages (e.g., sysex) are sent to all shards.
+ * Each buffer, the shards are rendered in parallel on a
+ * <code>ForkJoinPool</code>, and their output is mixed.
+ * 
+ * <p>This allows dense midi data (many channels with many sounding voices)
+ * to use more than one CPU core.  Note that each shard has its own
+ * reverb and chorus effects.
+ * 
+ * @author David Hovemeyer
+ */
+public class ShardedGervillUGen extends UGen {
+	/** Number of midi channels. */
+	private static final int NUM_CHANNELS = 16;
+	
+	/**
+	 * Default number of shards: one per available processor,
+	 * but no more than the number of midi channels.
+	 */
+	public static int DEFAULT_NUM_SHARDS = Math.min(NUM_CHANNELS, Runtime.getRuntime().availableProcessors());
+	
+	private GervillUGen[] shards;
+	private int[] channelToShard;
+	private ForkJoinPool pool;
+	private boolean ownPool;
+	private RenderShard[] tasks;
+	
+	// Task to render one shard into its own output buffers.  Tasks are
+	// reinitialized and reused for every buffer, so rendering doesn't allocate.
+	private static class RenderShard extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final GervillUGen shard;
+		private final float[][] out;
+		
+		RenderShard(GervillUGen shard, int bufferSize) {
+			this.shard = shard;
+			this.out = new float[2][bufferSize];
+		}
+		
+		@Override
+		protected void compute() {
+			shard.render(out);
+		}
+	}
+
+	/**
+	 * Constructor.  Uses the {@link #DEFAULT_NUM_SHARDS default number of shards},
+	 * rendered using a ForkJoinPool owned by this UGen.
+	 * 
+	 * @param context  the AudioContext
+	 * @param info     info, used when opening an audio input stream from each synthesizer
+	 * @throws MidiUnavailableException
+	 */
+	public ShardedGervillUGen(AudioContext context, Map<String, Object> info) throws MidiUnavailableException {
+		this(context, info, DEFAULT_NUM_SHARDS);
+	}
+	
+	/**
+	 * Constructor.  The shards are rendered using a ForkJoinPool owned by this UGen.
+	 * 
+	 * @param context    the AudioContext
+	 * @param info       info, used when opening an audio input stream from each synthesizer
+	 * @param numShards  the number of shards (1 to 16)
+	 * @throws MidiUnavailableException
+	 */
+	public ShardedGervillUGen(AudioContext context, Map<String, Object> info, int numShards) throws MidiUnavailableException {
+		this(context, info, numShards, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param context    the AudioContext
+	 * @param info       info, used when opening an audio input stream from each synthesizer
+	 * @param numShards  the number of shards (1 to 16)
+	 * @param pool       the ForkJoinPool used to render the shards, or null to
+	 *                   create a pool owned by this UGen
+	 * @throws MidiUnavailableException
+	 */
+	public ShardedGervillUGen(AudioContext context, Map<String, Object> info, int numShards, ForkJoinPool pool) throws MidiUnavailableException {
+		super(context, 2);
+		if (numShards < 1 || numShards > NUM_CHANNELS) {
+			throw new IllegalArgumentException("Invalid number of shards: " + numShards);
+		}
+		
+		// Each shard is a GervillUGen, which is never added to the
+		// audio graph: its audio is rendered directly into the task's buffers
+		this.shards = new GervillUGen[numShards];
+		try {
+			for (int i = 0; i < numShards; i++) {
+				shards[i] = new GervillUGen(context, info);
+			}
+		} catch (MidiUnavailableException e) {
+			closeSynths();
+			throw e;
+		}
+		
+		// By default, assign channels to shards round-robin
+		this.channelToShard = new int[NUM_CHANNELS];
+		for (int ch = 0; ch < NUM_CHANNELS; ch++) {
+			channelToShard[ch] = ch % numShards;
+		}
+		
+		this.tasks = new RenderShard[numShards];
+		for (int i = 0; i < numShards; i++) {
+			tasks[i] = new RenderShard(shards[i], bufferSize);
+		}
+		if (numShards > 1) {
+			this.ownPool = (pool == null);
+			this.pool = ownPool ? new ForkJoinPool(numShards - 1) : pool;
+		}
+	}
+	
+	/**
+	 * Get the number of shards.
+	 * 
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+	
+	/**
+	 * Get a shard.  Its synthesizer can be accessed using
+	 * {@link GervillUGen#getSynth()}.
+	 * 
+	 * @param shard the shard index
+	 * @return the shard
+	 */
+	public GervillUGen getShard(int shard) {
+		return shards[shard];
+	}
+	
+	/**
+	 * Get the shard to which a midi channel is assigned.
+	 * 
+	 * @param channel the midi channel (0-15)
+	 * @return the index of the shard
+	 */
+	public int getShardForChannel(int channel) {
+		return channelToShard[channel];
+	}
+	
+	/**
+	 * Assign a midi channel to a shard.  Should be called before any messages
+	 * are sent on the channel, since the channel's state (program, controllers,
+	 * sounding notes) is not moved to the new shard.
+	 * 
+	 * @param channel  the midi channel (0-15)
+	 * @param shard    the index of the shard
+	 */
+	public void setShardForChannel(int channel, int shard) {
+		if (shard < 0 || shard >= shards.length) {
+			throw new IllegalArgumentException("Invalid shard: " + shard);
+		}
+		channelToShard[channel] = shard;
+	}
+	
+	/**
+	 * Load all of the instruments in a Soundbank into every shard's synthesizer.
+	 * 
+	 * @param soundbank the Soundbank
+	 * @return true if the instruments were loaded by all of the synthesizers
+	 */
+	public boolean loadAllInstruments(Soundbank soundbank) {
+		boolean result = true;
+		for (GervillUGen shard : shards) {
+			result &= shard.getSynth().loadAllInstruments(soundbank);
+		}
+		return result;
+	}
+	
+	/**
+	 * Load all of the instruments of a soundbank file into each shard's
+	 * synthesizer.  The shards share a single copy of the soundbank
+	 * (see {@link GervillUGen#loadSoundbank(File)}).
+	 * 
+	 * @param file the soundbank file
+	 * @return true if the instruments were loaded by all of the synthesizers
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public boolean loadSoundbank(File file) throws IOException, InvalidMidiDataException {
+		boolean result = true;
+		for (GervillUGen shard : shards) {
+			result &= shard.loadSoundbank(file);
+		}
+		return result;
+	}
+	
+	/**
+	 * Close all of the shards' synthesizers, and shut down the
+	 * ForkJoinPool (if it is owned by this UGen).
+	 */
+	public void close() {
+		closeSynths();
+		if (ownPool && pool != null) {
+			pool.shutdown();
+		}
+	}
+	
+	private void closeSynths() {
+		for (GervillUGen shard : shards) {
+			if (shard != null) {
+				shard.close();
+			}
+		}
+	}
+
+	@Override
+	protected void messageReceived(Bead message) {
+		if (Midi.hasMidiEventBatch(message)) {
+			// Route an entire frame's worth of midi messages
+			MidiEventBatch batch = Midi.getMidiEventBatch(message);
+			int count = batch.getEventCount();
+			long[] timestamps = batch.getTimeStamps();
+			for (int i = 0; i < count; i++) {
+				send(Midi.getMessage(batch, i), timestamps[i]);
+			}
+		} else if (Midi.hasMidiMessage(message)) {
+			send(Midi.getMidiMessage(message), Midi.getMidiTimestamp(message));
+		}
+	}
+	
+	/**
+	 * Send a midi message to the shard(s) which should receive it:
+	 * channel messages go to the channel's shard, and system
+	 * messages go to all shards.
+	 * 
+	 * @param msg        the MidiMessage
+	 * @param timestamp  the message's timestamp
+	 */
+	public void send(MidiMessage msg, long timestamp) {
+		int status = msg.getStatus();
+		if (status >= 0x80 && status < 0xF0) {
+			shards[channelToShard[status & 0x0F]].send(msg, timestamp);
+		} else {
+			for (GervillUGen shard : shards) {
+				shard.send(msg, timestamp);
+			}
+		}
+	}
+
+	@Override
+	public void calculateBuffer() {
+		int numShards = shards.length;
+		
+		// Render shards 1..n-1 on the pool, and shard 0 on this thread
+		for (int i = 1; i < numShards; i++) {
+			tasks[i].reinitialize();
+			pool.execute(tasks[i]);
+		}
+		try {
+			tasks[0].compute();
+		} finally {
+			// Wait for the other shards even if shard 0 failed, so that
+			// none of them is still rendering when it is reinitialized
+			for (int i = 1; i < numShards; i++) {
+				tasks[i].quietlyJoin();
+			}
+		}
+		for (int i = 1; i < numShards; i++) {
+			// Rethrows the exception if the shard failed
+			tasks[i].join();
+		}
+		
+		// Mix
+		float[] left = bufOut[0], right = bufOut[1];
+		System.arraycopy(tasks[0].out[0], 0, left, 0, bufferSize);
+		System.arraycopy(tasks[0].out[1], 0, right, 0, bufferSize);
+		for (int s = 1; s < numShards; s++) {
+			float[] shardLeft = tasks[s].out[0], shardRight = tasks[s].out[1];
+			for (int i = 0; i < bufferSize; i++) {
+				left[i] += shardLeft[i];
+				right[i] += shardRight[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,141 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Entry points of Gervill's SoftSynthesizer used by {@link GervillUGen}:
+ * its constructor and its <code>openStream</code> method.
+ * Neither is part of a public API, so they are looked up reflectively,
+ * once per JVM, and cached as MethodHandles, so that creating a
+ * GervillUGen doesn't repeat the lookup and access checks.
+ * 
+ * <p>On Java 9 and later, the <code>com.sun.media.sound</code> package of the
+ * <code>java.desktop</code> module must be exported to the calling code
+ * (e.g., using <code>--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED</code>).
+ * If it isn't, every attempt to create a synthesizer fails immediately
+ * with a MidiUnavailableException explaining how to export it.
+ * 
+ * @author David Hovemeyer
+ */
+class SoftSynthesizerBridge {
+	private static final String SYNTH_CLASS = "com.sun.media.sound.SoftSynthesizer";
+	
+	// Resolved when first used
+	private static class Handles {
+		static final MethodHandle newSynth;
+		static final MethodHandle openStream;
+		static final String failure;
+		
+		static {
+			MethodHandle n = null, o = null;
+			String f = null;
+			try {
+				Class<?> synthCls = Class.forName(SYNTH_CLASS);
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				n = lookup.findConstructor(synthCls, MethodType.methodType(void.class))
+						.asType(MethodType.methodType(Synthesizer.class));
+				o = lookup.findVirtual(synthCls, "openStream",
+						MethodType.methodType(AudioInputStream.class, AudioFormat.class, Map.class))
+						.asType(MethodType.methodType(AudioInputStream.class, Synthesizer.class, AudioFormat.class, Map.class));
+			} catch (ClassNotFoundException e) {
+				f = "Could not find SoftSynthesizer class: " + e.toString();
+			} catch (IllegalAccessException e) {
+				f = "Could not access SoftSynthesizer: the com.sun.media.sound package of the "
+						+ "java.desktop module must be exported, e.g. by running java with "
+						+ "--add-exports java.desktop/com.sun.media.sound=" + getModuleName()
+						+ " (" + e.toString() + ")";
+			} catch (Throwable e) {
+				f = "Could not find SoftSynthesizer methods: " + e.toString();
+			}
+			newSynth = n;
+			openStream = o;
+			failure = f;
+		}
+	}
+	
+	/**
+	 * Create a new SoftSynthesizer.
+	 * 
+	 * @return the SoftSynthesizer
+	 * @throws MidiUnavailableException if the SoftSynthesizer can't be accessed or created
+	 */
+	static Synthesizer newSynthesizer() throws MidiUnavailableException {
+		check();
+		try {
+			return (Synthesizer) Handles.newSynth.invokeExact();
+		} catch (Throwable e) {
+			throw new MidiUnavailableException("Could not create SoftSynthesizer object: " + e.toString());
+		}
+	}
+	
+	/**
+	 * Open a SoftSynthesizer's audio stream.
+	 * 
+	 * @param synth  the SoftSynthesizer
+	 * @param fmt    the AudioFormat of the stream
+	 * @param info   info (properties) used to open the synthesizer
+	 * @return the stream
+	 * @throws MidiUnavailableException if the stream can't be opened
+	 */
+	static AudioInputStream openStream(Synthesizer synth, AudioFormat fmt, Map<String, Object> info)
+			throws MidiUnavailableException {
+		check();
+		try {
+			return (AudioInputStream) Handles.openStream.invokeExact(synth, fmt, (Map) info);
+		} catch (MidiUnavailableException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new MidiUnavailableException("Could not open SoftSynthesizer stream: " + e.toString());
+		}
+	}
+	
+	private static void check() throws MidiUnavailableException {
+		if (Handles.failure != null) {
+			throw new MidiUnavailableException(Handles.failure);
+		}
+	}
+	
+	// Name of the module containing this class (Java 9 and later),
+	// for use in an --add-exports option
+	private static String getModuleName() {
+		try {
+			Object module = Class.class.getMethod("getModule").invoke(SoftSynthesizerBridge.class);
+			Object name = module.getClass().getMethod("getName").invoke(module);
+			if (name != null) {
+				return name.toString();
+			}
+		} catch (Exception e) {
+			// Not Java 9 or later
+		}
+		return "ALL-UNNAMED";
+	}
+}
@@ -0,0 +1,298 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Soundbank;
+
+/**
+ * Process-wide cache of soundbanks loaded from files, so that
+ * any number of synthesizers can share a single parsed copy of each
+ * soundbank.  Gervill only loads a soundbank's sample data once,
+ * no matter how many synthesizers load its instruments, so sharing
+ * the Soundbank object means that the sample data is only kept
+ * in memory once.  Shared soundbanks must not be modified.
+ * 
+ * <p>Soundbanks are identified by the file's canonical path, modification
+ * time, and length: if the file changes, the next call to
+ * {@link #acquire(File)} loads it again.  Each call to {@link #acquire(File)}
+ * must be matched by a call to {@link #release(Soundbank)}.  Once a
+ * soundbank is no longer referenced, it is kept until more than
+ * the maximum number of unreferenced soundbanks are cached, and then evicted
+ * (least recently used first).  Large soundbank files are memory-mapped
+ * (see {@link #setMappedThreshold(long)}).
+ * {@link GervillUGen#loadSoundbank(File)} uses the cache automatically.
+ * 
+ * @author David Hovemeyer
+ */
+public class SoundbankCache {
+	/**
+	 * Default maximum number of unreferenced soundbanks to keep cached.
+	 */
+	public static int DEFAULT_MAX_UNUSED = 1;
+	
+	/**
+	 * Default mapped threshold: soundbank files at least this large
+	 * (in bytes) are loaded as {@link MappedSoundbank}s, if possible, so that
+	 * their sample data is memory-mapped rather than loaded onto the heap.
+	 */
+	public static long DEFAULT_MAPPED_THRESHOLD = 256L * 1024L * 1024L;
+	
+	/**
+	 * Whether soundbanks which aren't memory-mapped should have all of their
+	 * sample data read in parallel when they are loaded, using a
+	 * {@link ParallelSoundbankLoader}.  This makes loading all of the
+	 * instruments into a synthesizer faster, but defeats lazy loading
+	 * (see {@link GervillUGen#loadSoundbank(File, boolean)}).
+	 */
+	public static boolean DEFAULT_PARALLEL_LOADING = false;
+	
+	private static final SoundbankCache instance = new SoundbankCache();
+	
+	/**
+	 * Get the process-wide SoundbankCache.
+	 * 
+	 * @return the SoundbankCache
+	 */
+	public static SoundbankCache getInstance() {
+		return instance;
+	}
+	
+	private static class Entry {
+		final String key;
+		final File file;
+		int refCount;
+		Soundbank soundbank; // null until loaded
+		
+		Entry(String key, File file) {
+			this.key = key;
+			this.file = file;
+		}
+	}
+	
+	// Current entry for each file, by key
+	private final Map<String, Entry> entries;
+	
+	// Entries of all loaded soundbanks (including ones for
+	// files which have since changed), by soundbank
+	private final Map<Soundbank, Entry> loaded;
+	
+	// Unreferenced entries, least recently used first
+	private final LinkedHashMap<String, Entry> unused;
+	
+	private int maxUnused;
+	private volatile long mappedThreshold;
+	private volatile boolean parallelLoading;
+	
+	/**
+	 * Constructor.  Normally the process-wide instance returned by
+	 * {@link #getInstance()} should be used.
+	 */
+	public SoundbankCache() {
+		this.entries = new HashMap<String, Entry>();
+		this.loaded = new IdentityHashMap<Soundbank, Entry>();
+		this.unused = new LinkedHashMap<String, Entry>();
+		this.maxUnused = DEFAULT_MAX_UNUSED;
+		this.mappedThreshold = DEFAULT_MAPPED_THRESHOLD;
+		this.parallelLoading = DEFAULT_PARALLEL_LOADING;
+	}
+	
+	/**
+	 * Set whether soundbanks which aren't memory-mapped should have all
+	 * of their sample data read in parallel when they are loaded.
+	 * 
+	 * @param parallelLoading true to read sample data in parallel
+	 */
+	public void setParallelLoading(boolean parallelLoading) {
+		this.parallelLoading = parallelLoading;
+	}
+	
+	/**
+	 * Set the mapped threshold: soundbank files at least this large
+	 * are loaded as {@link MappedSoundbank}s, if possible.
+	 * 
+	 * @param mappedThreshold the threshold in bytes (0 to map all soundbanks,
+	 *                        <code>Long.MAX_VALUE</code> to never map soundbanks)
+	 */
+	public void setMappedThreshold(long mappedThreshold) {
+		this.mappedThreshold = mappedThreshold;
+	}
+	
+	/**
+	 * Set the maximum number of unreferenced soundbanks to keep cached.
+	 * 
+	 * @param maxUnused maximum number of unreferenced soundbanks
+	 */
+	public synchronized void setMaxUnused(int maxUnused) {
+		this.maxUnused = maxUnused;
+		evict();
+	}
+	
+	/**
+	 * Get a soundbank, loading it from the file if it isn't cached.
+	 * If another thread is already loading the same file, waits for it
+	 * to finish.  The soundbank's reference count is incremented.
+	 * 
+	 * @param file the soundbank file
+	 * @return the Soundbank
+	 * @throws IOException
+	 * @throws InvalidMidiDataException
+	 */
+	public Soundbank acquire(File file) throws IOException, InvalidMidiDataException {
+		File canonical = file.getCanonicalFile();
+		String key = canonical.getPath() + "|" + canonical.lastModified() + "|" + canonical.length();
+		
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				// Don't keep unreferenced copies of older versions of the file
+				Iterator<Entry> i = unused.values().iterator();
+				while (i.hasNext()) {
+					Entry old = i.next();
+					if (old.file.equals(canonical)) {
+						i.remove();
+						remove(old);
+					}
+				}
+				entry = new Entry(key, canonical);
+				entries.put(key, entry);
+			}
+			entry.refCount++;
+			unused.remove(key);
+		}
+		
+		// Only the entry is locked while loading, so different
+		// soundbanks can be loaded concurrently
+		boolean success = false;
+		try {
+			synchronized (entry) {
+				if (entry.soundbank == null) {
+					Soundbank soundbank;
+					if (entry.file.length() >= mappedThreshold && MappedSoundbank.isSupported()) {
+						soundbank = MappedSoundbank.load(entry.file);
+					} else if (parallelLoading && ParallelSoundbankLoader.isSupported()) {
+						soundbank = new ParallelSoundbankLoader(null).load(entry.file);
+					} else {
+						soundbank = MidiSystem.getSoundbank(entry.file);
+					}
+					synchronized (this) {
+						entry.soundbank = soundbank;
+						loaded.put(soundbank, entry);
+					}
+				}
+				success = true;
+				return entry.soundbank;
+			}
+		} finally {
+			if (!success) {
+				releaseEntry(entry);
+			}
+		}
+	}
+	
+	/**
+	 * Release a soundbank returned by {@link #acquire(File)}.
+	 * 
+	 * @param soundbank the Soundbank
+	 */
+	public void release(Soundbank soundbank) {
+		Entry entry;
+		synchronized (this) {
+			entry = loaded.get(soundbank);
+		}
+		if (entry == null) {
+			throw new IllegalArgumentException("Soundbank was not acquired from this cache");
+		}
+		releaseEntry(entry);
+	}
+	
+	/**
+	 * Get the number of references to a soundbank.
+	 * 
+	 * @param soundbank the Soundbank
+	 * @return the number of references, or 0 if the soundbank isn't cached
+	 */
+	public synchronized int getReferenceCount(Soundbank soundbank) {
+		Entry entry = loaded.get(soundbank);
+		return entry != null ? entry.refCount : 0;
+	}
+	
+	/**
+	 * Get the number of cached soundbanks, including unreferenced ones.
+	 * 
+	 * @return the number of cached soundbanks
+	 */
+	public synchronized int size() {
+		return loaded.size();
+	}
+	
+	/**
+	 * Evict all unreferenced soundbanks.
+	 */
+	public synchronized void evictUnused() {
+		int saved = maxUnused;
+		maxUnused = 0;
+		evict();
+		maxUnused = saved;
+	}
+	
+	private synchronized void releaseEntry(Entry entry) {
+		if (--entry.refCount > 0) {
+			return;
+		}
+		if (entry.soundbank == null || entries.get(entry.key) != entry) {
+			// Failed to load, or no longer current: don't keep it
+			remove(entry);
+		} else {
+			unused.put(entry.key, entry);
+			evict();
+		}
+	}
+	
+	private void evict() {
+		Iterator<Entry> i = unused.values().iterator();
+		while (unused.size() > maxUnused && i.hasNext()) {
+			Entry entry = i.next();
+			i.remove();
+			remove(entry);
+		}
+	}
+	
+	private void remove(Entry entry) {
+		if (entries.get(entry.key) == entry) {
+			entries.remove(entry.key);
+		}
+		if (entry.soundbank != null) {
+			loaded.remove(entry.soundbank);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.VoiceStatus;
+
+/**
+ * Changes the quality settings of an open Gervill SoftSynthesizer.
+ * Gervill only reads its settings (interpolation, reverb, chorus)
+ * from the info map passed to <code>openStream</code>, so changing them
+ * afterwards requires access to the synthesizer's internals using
+ * reflection.  Settings which can't be changed are ignored
+ * (see {@link #canChangeInterpolation()} and {@link #canChangeEffects()}).
+ * 
+ * @author David Hovemeyer
+ */
+class SynthControl {
+	private static final Object[] NO_ARGS = new Object[0];
+	
+	/**
+	 * Interpolation types supported by Gervill, from cheapest to most expensive.
+	 */
+	static final String[] INTERPOLATIONS = { "point", "linear", "cubic", "lanczos", "sinc" };
+	
+	// Gervill resampler class for each interpolation type
+	private static final String[] RESAMPLER_CLASSES = {
+		"com.sun.media.sound.SoftPointResampler",
+		"com.sun.media.sound.SoftLinearResampler2",
+		"com.sun.media.sound.SoftCubicResampler",
+		"com.sun.media.sound.SoftLanczosResampler",
+		"com.sun.media.sound.SoftSincResampler",
+	};
+	
+	private final Synthesizer synth;
+	private final VoiceStatus[] voices;
+	private final Field reverbOn;
+	private final Field chorusOn;
+	private final Field voiceResampler;
+	private final Object[] resamplers;
+	private final Method openStreamer;
+	private final int initialInterpolation;
+	private final boolean initialReverb;
+	private final boolean initialChorus;
+	
+	// Voices whose resampler doesn't match the current interpolation
+	private final boolean[] stale;
+	private int staleCount;
+	private int interpolation;
+	
+	/**
+	 * Constructor.  The synthesizer's stream must have been opened.
+	 * 
+	 * @param synth the SoftSynthesizer
+	 */
+	SynthControl(Synthesizer synth) {
+		this.synth = synth;
+		Class<?> synthCls = synth.getClass();
+		
+		// SoftVoice extends VoiceStatus, so a voice's active flag can be
+		// checked directly, without allocating a copy of every voice's status
+		VoiceStatus[] voices = null;
+		try {
+			Field voicesField = synthCls.getDeclaredField("voices");
+			voicesField.setAccessible(true);
+			voices = (VoiceStatus[]) voicesField.get(synth);
+		} catch (Exception e) {
+			// Includes InaccessibleObjectException on Java 9 and later
+		}
+		this.voices = voices;
+		
+		Field reverbOn = null, chorusOn = null;
+		boolean initialReverb = true, initialChorus = true;
+		try {
+			reverbOn = synthCls.getDeclaredField("reverb_on");
+			reverbOn.setAccessible(true);
+			chorusOn = synthCls.getDeclaredField("chorus_on");
+			chorusOn.setAccessible(true);
+			initialReverb = reverbOn.getBoolean(synth);
+			initialChorus = chorusOn.getBoolean(synth);
+		} catch (Exception e) {
+			reverbOn = chorusOn = null;
+		}
+		this.reverbOn = reverbOn;
+		this.chorusOn = chorusOn;
+		this.initialReverb = initialReverb;
+		this.initialChorus = initialChorus;
+		
+		Field voiceResampler = null;
+		Method openStreamer = null;
+		Object[] resamplers = null;
+		int initialInterpolation = INTERPOLATIONS.length - 1;
+		try {
+			Field typeField = synthCls.getDeclaredField("resamplerType");
+			typeField.setAccessible(true);
+			String type = (String) typeField.get(synth);
+			initialInterpolation = indexOfInterpolation(type);
+			
+			resamplers = new Object[RESAMPLER_CLASSES.length];
+			for (int i = 0; i < resamplers.length; i++) {
+				Constructor<?> ctor = Class.forName(RESAMPLER_CLASSES[i]).getDeclaredConstructor();
+				ctor.setAccessible(true);
+				resamplers[i] = ctor.newInstance();
+			}
+			openStreamer = resamplers[0].getClass().getSuperclass().getDeclaredMethod("openStreamer");
+			openStreamer.setAccessible(true);
+			if (voices != null && voices.length > 0) {
+				voiceResampler = voices[0].getClass().getDeclaredField("resampler");
+				voiceResampler.setAccessible(true);
+			}
+		} catch (InvocationTargetException e) {
+			// A resampler's constructor failed
+			voiceResampler = null;
+		} catch (Exception e) {
+			voiceResampler = null;
+		}
+		this.voiceResampler = voiceResampler;
+		this.openStreamer = openStreamer;
+		this.resamplers = resamplers;
+		this.initialInterpolation = initialInterpolation;
+		this.interpolation = initialInterpolation;
+		this.stale = new boolean[voices != null ? voices.length : 0];
+	}
+	
+	/**
+	 * Get the index in {@link #INTERPOLATIONS} of an interpolation type.
+	 * 
+	 * @param type the interpolation type
+	 * @return the index of the interpolation type (the index of "linear"
+	 *         for "linear1" and "linear2")
+	 */
+	static int indexOfInterpolation(String type) {
+		if (type.startsWith("linear")) {
+			return 1;
+		}
+		for (int i = 0; i < INTERPOLATIONS.length; i++) {
+			if (INTERPOLATIONS[i].equals(type)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown interpolation type: " + type);
+	}
+	
+	/**
+	 * @return true if the interpolation type can be changed
+	 */
+	boolean canChangeInterpolation() {
+		return voiceResampler != null;
+	}
+	
+	/**
+	 * @return true if reverb and chorus can be turned off
+	 */
+	boolean canChangeEffects() {
+		return reverbOn != null;
+	}
+	
+	/**
+	 * @return index in {@link #INTERPOLATIONS} of the interpolation
+	 *         type the synthesizer was opened with
+	 */
+	int getInitialInterpolation() {
+		return initialInterpolation;
+	}
+	
+	/**
+	 * Count the synthesizer's active voices.
+	 * 
+	 * @return the number of active voices
+	 */
+	int countActiveVoices() {
+		VoiceStatus[] v = voices != null ? voices : synth.getVoiceStatus();
+		int count = 0;
+		for (int i = 0; i < v.length; i++) {
+			if (v[i].active) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Turn reverb and chorus on or off.  When turning them on,
+	 * only the effects the synthesizer was opened with are turned on.
+	 * 
+	 * @param enabled true to turn effects on, false to turn them off
+	 */
+	void setEffectsEnabled(boolean enabled) {
+		if (reverbOn == null) {
+			return;
+		}
+		try {
+			reverbOn.setBoolean(synth, enabled && initialReverb);
+			chorusOn.setBoolean(synth, enabled && initialChorus);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Could not change Gervill synth effects", e);
+		}
+	}
+	
+	/**
+	 * Set the interpolation type.  A voice which is playing a note keeps using
+	 * its current resampler until the note ends, so the change only
+	 * takes effect for voices which aren't active: call {@link #updateVoices()}
+	 * periodically to change the remaining voices once they become inactive.
+	 * 
+	 * @param interpolation index in {@link #INTERPOLATIONS} of the interpolation type
+	 */
+	void setInterpolation(int interpolation) {
+		if (voiceResampler == null || interpolation == this.interpolation) {
+			return;
+		}
+		this.interpolation = interpolation;
+		for (int i = 0; i < stale.length; i++) {
+			stale[i] = true;
+		}
+		staleCount = stale.length;
+		updateVoices();
+	}
+	
+	/**
+	 * Give inactive voices a resampler for the current interpolation type,
+	 * if they don't already have one.
+	 */
+	void updateVoices() {
+		if (staleCount == 0) {
+			return;
+		}
+		Object resampler = resamplers[interpolation];
+		try {
+			// Voices are started while holding the synthesizer's lock
+			synchronized (synth) {
+				for (int i = 0; i < voices.length; i++) {
+					if (stale[i] && !voices[i].active) {
+						voiceResampler.set(voices[i], openStreamer.invoke(resampler, NO_ARGS));
+						stale[i] = false;
+						staleCount--;
+					}
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Could not change Gervill synth interpolation", e);
+		}
+	}
+}
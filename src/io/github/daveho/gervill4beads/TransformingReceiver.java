@@ -0,0 +1,73 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * A midi <code>Receiver</code> which applies a {@link MidiTransform}
+ * to short messages before passing them on to another Receiver
+ * (e.g., a {@link ReceivedMidiMessageSource}).  Messages which
+ * the transform doesn't change are passed on as-is, and at most one
+ * ShortMessage is created per modified message, regardless of how
+ * many stages the transform has.  Other kinds of messages
+ * (e.g., sysex messages) are passed on unchanged.
+ * 
+ * @author David Hovemeyer
+ */
+public class TransformingReceiver implements Receiver {
+	private final Receiver receiver;
+	private final MidiTransform transform;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param receiver   the Receiver to pass transformed messages to
+	 * @param transform  the transform
+	 */
+	public TransformingReceiver(Receiver receiver, MidiTransform transform) {
+		this.receiver = receiver;
+		this.transform = transform;
+	}
+
+	@Override
+	public void send(MidiMessage message, long timeStamp) {
+		int packed = Midi.pack(message);
+		if (packed != 0) {
+			int transformed = transform.transform(packed);
+			if (transformed == 0) {
+				// Dropped
+				return;
+			}
+			if (transformed != packed) {
+				message = Midi.toShortMessage(transformed);
+			}
+		}
+		receiver.send(message, timeStamp);
+	}
+
+	@Override
+	public void close() {
+		receiver.close();
+	}
+}
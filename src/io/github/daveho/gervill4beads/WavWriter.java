@@ -0,0 +1,167 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes audio to a WAV file incrementally, so that arbitrarily
+ * long audio can be written without keeping it in memory.
+ * Samples are written either as 16 bit PCM or as 32 bit float.
+ * The header's size fields are filled in when the writer is closed.
+ * 
+ * @author David Hovemeyer
+ */
+public class WavWriter implements Closeable {
+	private static final int HEADER_SIZE = 44;
+	private static final int FORMAT_PCM = 1;
+	private static final int FORMAT_IEEE_FLOAT = 3;
+	
+	private final File file;
+	private final int channels;
+	private final boolean floatSamples;
+	private final int bytesPerSample;
+	private OutputStream out;
+	private byte[] buf;
+	private long dataBytes;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param file          the file to write
+	 * @param sampleRate    the sample rate
+	 * @param channels      the number of channels
+	 * @param floatSamples  true to write 32 bit float samples, false to write 16 bit PCM samples
+	 * @throws IOException
+	 */
+	public WavWriter(File file, float sampleRate, int channels, boolean floatSamples) throws IOException {
+		this.file = file;
+		this.channels = channels;
+		this.floatSamples = floatSamples;
+		this.bytesPerSample = floatSamples ? 4 : 2;
+		this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		this.buf = new byte[0];
+		this.dataBytes = 0L;
+		
+		// Write the header: the sizes are filled in by close()
+		byte[] header = new byte[HEADER_SIZE];
+		int blockAlign = channels * bytesPerSample;
+		putAscii(header, 0, "RIFF");
+		putAscii(header, 8, "WAVE");
+		putAscii(header, 12, "fmt ");
+		putInt(header, 16, 16);
+		putShort(header, 20, floatSamples ? FORMAT_IEEE_FLOAT : FORMAT_PCM);
+		putShort(header, 22, channels);
+		putInt(header, 24, (int) sampleRate);
+		putInt(header, 28, (int) sampleRate * blockAlign);
+		putShort(header, 32, blockAlign);
+		putShort(header, 34, bytesPerSample * 8);
+		putAscii(header, 36, "data");
+		out.write(header);
+	}
+	
+	/**
+	 * Write audio frames.
+	 * 
+	 * @param samples  array of sample buffers, one per channel
+	 * @param offset   index of the first frame to write
+	 * @param frames   number of frames to write
+	 * @throws IOException
+	 */
+	public void write(float[][] samples, int offset, int frames) throws IOException {
+		int len = frames * channels * bytesPerSample;
+		if (buf.length < len) {
+			buf = new byte[len];
+		}
+		int pos = 0;
+		for (int i = offset; i < offset + frames; i++) {
+			for (int ch = 0; ch < channels; ch++) {
+				float sample = samples[ch][i];
+				if (floatSamples) {
+					putInt(buf, pos, Float.floatToRawIntBits(sample));
+				} else {
+					float clipped = sample > 1.0f ? 1.0f : (sample < -1.0f ? -1.0f : sample);
+					putShort(buf, pos, Math.round(clipped * 32767.0f));
+				}
+				pos += bytesPerSample;
+			}
+		}
+		out.write(buf, 0, len);
+		dataBytes += len;
+	}
+	
+	/**
+	 * Get the number of frames written so far.
+	 * 
+	 * @return number of frames written
+	 */
+	public long getFramesWritten() {
+		return dataBytes / (channels * bytesPerSample);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out == null) {
+			return;
+		}
+		out.close();
+		out = null;
+		
+		// Fill in the RIFF chunk and data chunk sizes
+		byte[] size = new byte[4];
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			putInt(size, 0, (int) (dataBytes + HEADER_SIZE - 8));
+			raf.seek(4);
+			raf.write(size);
+			putInt(size, 0, (int) dataBytes);
+			raf.seek(40);
+			raf.write(size);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	private static void putAscii(byte[] b, int pos, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			b[pos + i] = (byte) s.charAt(i);
+		}
+	}
+	
+	private static void putShort(byte[] b, int pos, int v) {
+		b[pos] = (byte) v;
+		b[pos + 1] = (byte) (v >> 8);
+	}
+	
+	private static void putInt(byte[] b, int pos, int v) {
+		b[pos] = (byte) v;
+		b[pos + 1] = (byte) (v >> 8);
+		b[pos + 2] = (byte) (v >> 16);
+		b[pos + 3] = (byte) (v >> 24);
+	}
+}
@@ -0,0 +1,155 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AudioClockEstimator}, using synthetic frame start
+ * times with scheduling jitter and clock drift.
+ * 
+ * @author David Hovemeyer
+ */
+public class AudioClockEstimatorTest {
+	// 256 frames at 44.1 kHz
+	private static final double MS_PER_FRAME = 256.0 * 1000.0 / 44100.0;
+	
+	// The audio clock runs this much slower than nanoTime
+	private static final double DRIFT_PPM = 50.0;
+	
+	// Standard deviation of the jitter in frame start times
+	private static final double JITTER_MS = 0.3;
+	
+	// About 2 minutes of frames: long enough for the loop to lock
+	private static final int CONVERGE_FRAMES = 20000;
+	
+	// Number of frames checked after the loop has locked
+	private static final int MEASURED_FRAMES = 5000;
+	
+	private static final long START_NANOS = 1000000000L;
+	
+	private AudioClockEstimator clock;
+	private Random rng;
+	private double truePeriodNanos;
+	private long frame;
+	
+	@Before
+	public void setUp() {
+		clock = new AudioClockEstimator(MS_PER_FRAME);
+		rng = new Random(42L);
+		truePeriodNanos = MS_PER_FRAME * 1000000.0 * (1.0 + DRIFT_PPM / 1000000.0);
+		frame = 0L;
+	}
+	
+	// Jitter-free start time of the given frame
+	private double idealStartNanos(long f) {
+		return START_NANOS + f * truePeriodNanos;
+	}
+	
+	// Report the start of the next frame, with jitter
+	private void nextFrame() {
+		long nanoTime = (long) (idealStartNanos(frame) + rng.nextGaussian() * JITTER_MS * 1000000.0);
+		clock.frameStart(frame * MS_PER_FRAME, nanoTime);
+		frame++;
+	}
+	
+	@Test
+	public void testPeriodAndPhaseConverge() {
+		for (int i = 0; i < CONVERGE_FRAMES; i++) {
+			nextFrame();
+		}
+		
+		// The estimated period wanders a little with the jitter,
+		// but on average matches the drifting audio clock; the
+		// jitter-free start of each frame maps very close
+		// to the frame's audio time
+		double periodSum = 0.0, driftSum = 0.0, maxPhaseErr = 0.0;
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			nextFrame();
+			periodSum += clock.getPeriodMs();
+			driftSum += clock.getDriftPpm();
+			long f = frame - 1;
+			double phaseErr = clock.toAudioTimeMs((long) idealStartNanos(f)) - f * MS_PER_FRAME;
+			maxPhaseErr = Math.max(maxPhaseErr, Math.abs(phaseErr));
+		}
+		double meanPeriodNanos = periodSum / MEASURED_FRAMES * 1000000.0;
+		assertEquals(0.0, (meanPeriodNanos / truePeriodNanos - 1.0) * 1000000.0, 10.0);
+		assertEquals(DRIFT_PPM, driftSum / MEASURED_FRAMES, 10.0);
+		assertEquals(JITTER_MS, clock.getJitterMs(), 0.1);
+		assertTrue("phase error " + maxPhaseErr, maxPhaseErr < JITTER_MS);
+	}
+	
+	@Test
+	public void testMappingIsSmooth() {
+		for (int i = 0; i < CONVERGE_FRAMES; i++) {
+			nextFrame();
+		}
+		
+		// Map the middle of each frame: although frame start times
+		// jitter by much more, successive results should differ by
+		// almost exactly one frame, and never go backwards
+		double prev = Double.NaN;
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			nextFrame();
+			long mid = (long) (idealStartNanos(frame - 1) + truePeriodNanos / 2.0);
+			double audioMs = clock.toAudioTimeMs(mid);
+			if (i > 0) {
+				assertTrue(audioMs > prev);
+				assertEquals(MS_PER_FRAME, audioMs - prev, JITTER_MS / 6.0);
+			}
+			prev = audioMs;
+		}
+	}
+	
+	@Test
+	public void testResetAfterLargeError() {
+		for (int i = 0; i < CONVERGE_FRAMES; i++) {
+			nextFrame();
+		}
+		assertTrue(clock.getDriftPpm() != 0.0);
+		
+		// An error of 2 periods is tracked, not reset
+		double audioMs = frame * MS_PER_FRAME;
+		long nanoTime = (long) (idealStartNanos(frame) + 2.0 * truePeriodNanos);
+		clock.frameStart(audioMs, nanoTime);
+		assertTrue(Math.abs(clock.toAudioTimeMs(nanoTime) - audioMs) > 0.001);
+		assertTrue(clock.getDriftPpm() != 0.0);
+		
+		// The audio clock stops for a second, and then restarts: an error
+		// of more than 4 periods resets the loop, so the mapping
+		// starts again from the restarted frame
+		frame += 2;
+		audioMs = frame * MS_PER_FRAME;
+		nanoTime = (long) (idealStartNanos(frame) + 1000000000.0);
+		clock.frameStart(audioMs, nanoTime);
+		assertEquals(audioMs, clock.toAudioTimeMs(nanoTime), 1e-9);
+		assertEquals(MS_PER_FRAME, clock.getPeriodMs(), 1e-9);
+		assertEquals(0.0, clock.getDriftPpm(), 1e-9);
+		assertEquals(0.0, clock.getJitterMs(), 1e-9);
+	}
+}
@@ -0,0 +1,67 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ * 
+ * @author David Hovemeyer
+ */
+public class LatencyHistogramTest {
+	@Test
+	public void testRecord() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 1L; v <= 100L; v++) {
+			h.record(v * 1000L);
+		}
+		assertEquals(100L, h.getCount());
+		assertEquals(100000L, h.getMax());
+		assertEquals(50500.0, h.getMean(), 1e-9);
+		// Buckets are accurate to within about 6%
+		assertEquals(50000.0, h.getValueAtPercentile(50.0), 50000.0 * 0.07);
+		assertEquals(99000.0, h.getValueAtPercentile(99.0), 99000.0 * 0.07);
+	}
+	
+	@Test
+	public void testResetIsAppliedByRecordingThread() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 0; i < 10; i++) {
+			h.record(1000000L);
+		}
+		
+		// Requesting a reset doesn't change anything until the next value
+		// is recorded, so concurrent readers see consistent statistics
+		h.reset();
+		assertEquals(10L, h.getCount());
+		assertEquals(1000000L, h.getMax());
+		
+		h.record(10L);
+		assertEquals(1L, h.getCount());
+		assertEquals(10L, h.getMax());
+		assertEquals(10.0, h.getMean(), 1e-9);
+		assertEquals(10L, h.getValueAtPercentile(100.0));
+	}
+}
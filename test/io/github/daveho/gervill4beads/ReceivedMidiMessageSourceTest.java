@@ -0,0 +1,153 @@
+// Gervill4Beads - integrate Gervill with the Beads library
+// Copyright (c) 2015, David H. Hovemeyer <david.hovemeyer@gmail.com>
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package io.github.daveho.gervill4beads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+import net.beadsproject.beads.core.AudioContext;
+import net.beadsproject.beads.core.Bead;
+import net.beadsproject.beads.core.io.NonrealtimeIO;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ReceivedMidiMessageSource}.
+ * 
+ * @author David Hovemeyer
+ */
+public class ReceivedMidiMessageSourceTest {
+	private static final int EVENTS_PER_FRAME = 16;
+	private static final int WARMUP_FRAMES = 50000;
+	private static final int MEASURED_FRAMES = 10000;
+	
+	// Consumes the dispatched messages, so that dispatch can't be optimized away
+	private static class Consumer extends Bead {
+		long sum;
+		long messages;
+		long batchedMessages;
+		
+		@Override
+		protected void messageReceived(Bead message) {
+			if (message instanceof MidiMessageSource) {
+				MidiMessageSource source = (MidiMessageSource) message;
+				MidiMessage msg = source.getMessage();
+				sum += msg.getStatus() + source.getTimeStamp();
+				messages++;
+			} else {
+				MidiEventBatch batch = (MidiEventBatch) message;
+				int[] packed = batch.getPackedMessages();
+				for (int i = 0; i < batch.getEventCount(); i++) {
+					sum += packed[i];
+				}
+				batchedMessages += batch.getEventCount();
+			}
+		}
+	}
+	
+	@Test
+	public void testFrameDispatchDoesNotAllocate() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadMX = (com.sun.management.ThreadMXBean) mx;
+		assumeTrue(threadMX.isThreadAllocatedMemorySupported());
+		threadMX.setThreadAllocatedMemoryEnabled(true);
+		long tid = Thread.currentThread().getId();
+		
+		AudioContext ac = new AudioContext(new NonrealtimeIO(), 256);
+		ReceivedMidiMessageSource source = new ReceivedMidiMessageSource(ac);
+		Consumer consumer = new Consumer();
+		source.addMessageListener(consumer);
+		source.addBatchListener(consumer);
+		ShortMessage[] messages = new ShortMessage[EVENTS_PER_FRAME];
+		for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+			messages[i] = Midi.createShortMessage(ShortMessage.NOTE_ON, 60 + i, 100);
+		}
+		
+		runFrames(source, messages, WARMUP_FRAMES);
+		
+		// Cost of measuring, so that it can be subtracted
+		long before = threadMX.getThreadAllocatedBytes(tid);
+		long overhead = threadMX.getThreadAllocatedBytes(tid) - before;
+		
+		before = threadMX.getThreadAllocatedBytes(tid);
+		runFrames(source, messages, MEASURED_FRAMES);
+		long allocated = threadMX.getThreadAllocatedBytes(tid) - before - overhead;
+		
+		assertEquals("bytes allocated per frame", 0L, Math.max(0L, allocated) / MEASURED_FRAMES);
+		
+		// Every message was delivered, both individually and in batches
+		long sent = (long) (WARMUP_FRAMES + MEASURED_FRAMES) * EVENTS_PER_FRAME;
+		assertEquals(sent, consumer.messages);
+		assertEquals(sent, consumer.batchedMessages);
+	}
+	
+	@Test
+	public void testTransformedMessageCreatedOnce() {
+		AudioContext ac = new AudioContext(new NonrealtimeIO(), 256);
+		ReceivedMidiMessageSource source = new ReceivedMidiMessageSource(ac);
+		source.setTransform(MidiTransforms.transpose(12));
+		final List<MidiMessage> received = new ArrayList<MidiMessage>();
+		Bead listener = new Bead() {
+			@Override
+			protected void messageReceived(Bead message) {
+				if (Midi.hasMidiEventBatch(message)) {
+					received.add(Midi.getMessage(Midi.getMidiEventBatch(message), 0));
+				} else {
+					received.add(Midi.getMidiMessage(message));
+				}
+			}
+		};
+		source.addMessageListener(listener);
+		source.addMessageListener(listener);
+		source.addBatchListener(listener);
+		source.addBatchListener(listener);
+		
+		source.send(Midi.createShortMessage(ShortMessage.NOTE_ON, 60, 100), 0L);
+		source.frameStart();
+		
+		// All listeners got the same transformed ShortMessage
+		assertEquals(4, received.size());
+		assertEquals(72, ((ShortMessage) received.get(0)).getData1());
+		for (MidiMessage msg : received) {
+			assertSame(received.get(0), msg);
+		}
+	}
+	
+	private static void runFrames(ReceivedMidiMessageSource source, ShortMessage[] messages, int frames) {
+		for (int f = 0; f < frames; f++) {
+			for (ShortMessage msg : messages) {
+				// Timestamp 0 is always in the current frame (the AudioContext isn't running)
+				source.send(msg, 0L);
+			}
+			source.frameStart();
+		}
+	}
+}